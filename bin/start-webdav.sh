@@ -42,4 +42,4 @@ done
 export HADOOP_CLASSPATH="${HADOOP_CLASSPATH}:${classpath}"
 
 # start webdav daemon
-"$bin"/hadoop-daemon.sh --config $HADOOP_CONF_DIR start $WEBDAV_JAVA_CLASS $optAddr $optPort $optHDFS
+"$bin"/hadoop-daemon.sh --config $HADOOP_CONF_DIR start $WEBDAV_JAVA_CLASS $optAddr $optPort $optHDFS $HADOOP_WEBDAV_OPTS
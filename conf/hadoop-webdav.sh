@@ -12,6 +12,10 @@
 # your Hadoop installation.
 # export HADOOP_WEBDAV_HDFS=hdfs://192.168.1.4:54310/
 
+# Extra options of the WebDAV server, see WebdavServer -h. For many slow
+# clients, run each request on a thread of its own:
+# export HADOOP_WEBDAV_OPTS="-x elastic -T 10000 -s 256 -q 1024"
+
 # Java CLASSPATH. Should point to hdfs_webdav.jar file.  Required.
 # export HADOOP_WEBDAV_CLASSPATH=/home/user/hadoop-webdav/lib
 
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.Socket;
+import java.util.Map;
+
+import org.apache.jackrabbit.util.Base64;
+
+/**
+ * A minimal HTTP client able to send WebDAV methods, which
+ * <code>HttpURLConnection</code> refuses. Every request opens its own
+ * connection and reads the response to the end.
+ */
+public class BenchmarkClient {
+
+    private final String host;
+    private final int port;
+    private String authorization;
+
+    public BenchmarkClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Sends the given credentials with every request, using basic
+     * authentication.
+     */
+    public void setCredentials(String user, String password) throws IOException {
+        byte[] credentials = (user + ":" + password).getBytes("ISO-8859-1");
+        StringWriter encoded = new StringWriter();
+        Base64.encode(credentials, 0, credentials.length, encoded);
+        authorization = "Basic " + encoded;
+    }
+
+    /**
+     * Sends a request and discards the response body.
+     *
+     * @return the status code of the response
+     */
+    public int execute(String method, String path, Map<String, String> headers, byte[] body)
+        throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            StringBuilder request = new StringBuilder();
+            request.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(host).append(':').append(port).append("\r\n");
+            request.append("Connection: close\r\n");
+            if (authorization != null) {
+                request.append("Authorization: ").append(authorization).append("\r\n");
+            }
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+            }
+            request.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes("ISO-8859-1"));
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            StringBuilder statusLine = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n') {
+                statusLine.append((char) c);
+            }
+            byte[] buf = new byte[8192];
+            while (in.read(buf) >= 0) {
+                // discard
+            }
+            String[] parts = statusLine.toString().trim().split(" ");
+            if (parts.length < 2) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            return Integer.parseInt(parts[1]);
+        } finally {
+            socket.close();
+        }
+    }
+}
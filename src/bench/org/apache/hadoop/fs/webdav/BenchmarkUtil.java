@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavLocatorFactory;
+import org.apache.jackrabbit.webdav.DavSession;
+import org.apache.jackrabbit.webdav.simple.LocatorFactoryImpl;
+import org.apache.jackrabbit.webdav.simple.ResourceConfig;
+
+/**
+ * Fixtures shared by the benchmarks: a configuration pointing at the local
+ * filesystem and synthetic directory trees, so that no cluster is needed.
+ */
+public class BenchmarkUtil {
+
+    private BenchmarkUtil() {
+    }
+
+    /**
+     * Returns a configuration serving the local filesystem, with the access
+     * log off so that it does not flood the console.
+     */
+    public static Configuration createConf() {
+        Configuration conf = new Configuration();
+        conf.set("fs.default.name", "file:///");
+        conf.setBoolean(AccessLog.ENABLED_KEY, false);
+        return conf;
+    }
+
+    /**
+     * Creates a temporary directory holding <code>files</code> files of
+     * <code>size</code> bytes each, named <code>f0</code>, <code>f1</code>...
+     */
+    public static File createDirectory(int files, int size) throws IOException {
+        File dir = File.createTempFile("webdav-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 'x');
+        for (int i = 0; i < files; i++) {
+            FileOutputStream out = new FileOutputStream(new File(dir, "f" + i));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Resolves resources the way {@link WebdavServlet} does, for a fixed
+     * authenticated user.
+     */
+    public static class Resources {
+        private final FSDavResourceFactory factory;
+        private final DavLocatorFactory locatorFactory = new LocatorFactoryImpl("");
+        private final DavSession session
+            = new FSDavSession(new SecurityContext("bench", Arrays.asList("bench")));
+
+        public Resources(Configuration conf) {
+            WebdavMetrics.init(conf);
+            this.factory = new FSDavResourceFactory(new ResourceConfig(), conf);
+        }
+
+        public FSDavResource get(String path) throws DavException {
+            return (FSDavResource) factory.createResource(locatorFactory.createResourceLocator("", path),
+                                                          session);
+        }
+
+        public DavSession getSession() {
+            return session;
+        }
+    }
+}
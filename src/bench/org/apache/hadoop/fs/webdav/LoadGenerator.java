@@ -0,0 +1,390 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.fs.FileUtil;
+
+/**
+ * Drives a WebDAV gateway with many concurrent simulated clients and reports
+ * throughput, latency percentiles and error rates per operation.
+ * <p/>
+ * By default a {@link WebdavServer} is started in-process over the local
+ * filesystem, in a temporary directory; <code>--target host:port</code>
+ * drives a running gateway instead. Every client works in a directory of its
+ * own holding <code>--files</code> files. The operations and their weights
+ * are given with <code>--mix</code>, e.g.
+ * <code>get=50,propfind1=20,put=10,explorer=20</code>. Besides plain WebDAV
+ * methods, <code>explorer</code> and <code>finder</code> replay the probes
+ * Windows Explorer and the Mac OS Finder send when opening a folder; the 404
+ * answers they get are expected and not counted as errors.
+ */
+public class LoadGenerator {
+
+    static final String DEFAULT_MIX
+        = "propfind0=15,propfind1=15,get=25,range=10,put=10,mkcol=5,move=5,delete=5,explorer=5,finder=5";
+
+    private static final String[] EXPLORER_PROBES = {
+        "desktop.ini", "Desktop.ini", "Thumbs.db", "folder.jpg", "folder.gif", "autorun.inf"
+    };
+    private static final String[] FINDER_PROBES = {
+        ".DS_Store", ".hidden", ".localized", ".metadata_never_index", "._."
+    };
+
+    private static final Map<String, String> DEPTH_0 = Collections.singletonMap("Depth", "0");
+    private static final Map<String, String> DEPTH_1 = Collections.singletonMap("Depth", "1");
+
+    private final String host;
+    private final int port;
+    private final String rootPath;
+    private final int files;
+    private final byte[] content;
+    private final String[] ops;
+    private final int[] cumulativeWeights;
+    private String user;
+    private String password;
+
+    private final Map<String, OpStats> stats = new LinkedHashMap<String, OpStats>();
+
+    private static class OpStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    LoadGenerator(String host, int port, String rootPath, int files, int fileSize, String mix) {
+        this.host = host;
+        this.port = port;
+        this.rootPath = rootPath.endsWith("/") ? rootPath : rootPath + "/";
+        this.files = files;
+        this.content = new byte[fileSize];
+        new Random(0).nextBytes(content);
+
+        List<String> names = new ArrayList<String>();
+        List<Integer> weights = new ArrayList<Integer>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entry);
+            }
+            names.add(parts[0].trim());
+            weights.add(Integer.parseInt(parts[1].trim()));
+            stats.put(parts[0].trim(), new OpStats());
+        }
+        this.ops = names.toArray(new String[names.size()]);
+        this.cumulativeWeights = new int[ops.length];
+        int total = 0;
+        for (int i = 0; i < ops.length; i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * Authenticates the clients with the given credentials.
+     */
+    void setCredentials(String user, String password) {
+        this.user = user;
+        this.password = password;
+    }
+
+    private BenchmarkClient createClient() throws IOException {
+        BenchmarkClient client = new BenchmarkClient(host, port);
+        if (user != null) {
+            client.setCredentials(user, password);
+        }
+        return client;
+    }
+
+    /**
+     * One simulated client, working in its own directory.
+     */
+    private class Client implements Runnable {
+        private final BenchmarkClient http;
+        private final String dir;
+        private final Random random;
+        private long deadline;
+        private final LinkedList<String> created = new LinkedList<String>();
+        private int counter = 0;
+
+        Client(int id) throws IOException {
+            this.http = createClient();
+            this.dir = rootPath + "client" + id + "/";
+            this.random = new Random(id);
+        }
+
+        void prepare() throws IOException {
+            expect(http.execute("MKCOL", dir, null, null), 201);
+            for (int i = 0; i < files; i++) {
+                expect(http.execute("PUT", dir + "f" + i, null, content), 201);
+            }
+        }
+
+        public void run() {
+            while (System.currentTimeMillis() < deadline) {
+                String op = pick(random);
+                long start = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = execute(op);
+                } catch (IOException ex) {
+                    ok = false;
+                }
+                OpStats opStats = stats.get(op);
+                opStats.latency.record((System.nanoTime() - start) / 1000);
+                if (!ok) {
+                    opStats.errors.incrementAndGet();
+                }
+            }
+        }
+
+        private String randomFile() {
+            return dir + "f" + random.nextInt(files);
+        }
+
+        private String newName(String prefix) {
+            return dir + prefix + (counter++);
+        }
+
+        private boolean execute(String op) throws IOException {
+            if (op.equals("propfind0")) {
+                return success(http.execute("PROPFIND", randomFile(), DEPTH_0, null));
+            } else if (op.equals("propfind1")) {
+                return success(http.execute("PROPFIND", dir, DEPTH_1, null));
+            } else if (op.equals("get")) {
+                return success(http.execute("GET", randomFile(), null, null));
+            } else if (op.equals("range")) {
+                int length = Math.max(1, content.length / 16);
+                int offset = random.nextInt(Math.max(1, content.length - length));
+                Map<String, String> headers
+                    = Collections.singletonMap("Range", "bytes=" + offset + "-" + (offset + length - 1));
+                return http.execute("GET", randomFile(), headers, null) == 206;
+            } else if (op.equals("put")) {
+                String path = newName("put");
+                boolean ok = success(http.execute("PUT", path, null, content));
+                if (ok) {
+                    created.add(path);
+                }
+                return ok;
+            } else if (op.equals("mkcol")) {
+                String path = newName("col") + "/";
+                boolean ok = success(http.execute("MKCOL", path, null, null));
+                if (ok) {
+                    created.add(path);
+                }
+                return ok;
+            } else if (op.equals("move")) {
+                if (created.isEmpty()) {
+                    return execute("put");
+                }
+                String source = created.removeFirst();
+                String destination = newName("moved") + (source.endsWith("/") ? "/" : "");
+                Map<String, String> headers = new HashMap<String, String>();
+                headers.put("Destination", "http://" + host + ":" + port + destination);
+                headers.put("Overwrite", "T");
+                boolean ok = success(http.execute("MOVE", source, headers, null));
+                created.add(ok ? destination : source);
+                return ok;
+            } else if (op.equals("delete")) {
+                if (created.isEmpty()) {
+                    return execute("put");
+                }
+                return success(http.execute("DELETE", created.removeFirst(), null, null));
+            } else if (op.equals("explorer")) {
+                for (String probe : EXPLORER_PROBES) {
+                    if (!probe(dir + probe)) {
+                        return false;
+                    }
+                }
+                return success(http.execute("PROPFIND", dir, DEPTH_1, null));
+            } else if (op.equals("finder")) {
+                for (String probe : FINDER_PROBES) {
+                    if (!probe(dir + probe)) {
+                        return false;
+                    }
+                }
+                String file = randomFile();
+                int slash = file.lastIndexOf('/');
+                if (!probe(file.substring(0, slash + 1) + "._" + file.substring(slash + 1))) {
+                    return false;
+                }
+                return success(http.execute("PROPFIND", dir, DEPTH_1, null));
+            }
+            throw new IllegalArgumentException("Unknown operation: " + op);
+        }
+
+        private boolean probe(String path) throws IOException {
+            int status = http.execute("PROPFIND", path, DEPTH_0, null);
+            return success(status) || status == 404;
+        }
+    }
+
+    private static boolean success(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    private static void expect(int status, int expected) throws IOException {
+        if (status != expected && !success(status)) {
+            throw new IOException("Unexpected status " + status);
+        }
+    }
+
+    private String pick(Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < ops.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return ops[i];
+            }
+        }
+        return ops[ops.length - 1];
+    }
+
+    /**
+     * Runs the given number of clients for the given time and prints the
+     * results.
+     */
+    void run(int clients, long seconds) throws Exception {
+        List<Client> workers = new ArrayList<Client>();
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client(i);
+            client.prepare();
+            workers.add(client);
+        }
+        long start = System.currentTimeMillis();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < clients; i++) {
+            Client client = workers.get(i);
+            client.deadline = start + seconds * 1000;
+            Thread thread = new Thread(client, "loadgen-client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(System.currentTimeMillis() - start);
+    }
+
+    private void report(long elapsed) {
+        double seconds = elapsed / 1000.0;
+        System.out.println(String.format("%-10s %10s %10s %8s %10s %10s %10s",
+                                         "op", "count", "ops/s", "errors", "p50(ms)", "p99(ms)", "p999(ms)"));
+        long total = 0;
+        long errors = 0;
+        for (Map.Entry<String, OpStats> entry : stats.entrySet()) {
+            OpStats opStats = entry.getValue();
+            long count = opStats.latency.getCount();
+            total += count;
+            errors += opStats.errors.get();
+            System.out.println(String.format("%-10s %10d %10.1f %7.2f%% %10.2f %10.2f %10.2f",
+                                             entry.getKey(),
+                                             count,
+                                             count / seconds,
+                                             count == 0 ? 0.0 : 100.0 * opStats.errors.get() / count,
+                                             opStats.latency.getPercentile(0.5) / 1000.0,
+                                             opStats.latency.getPercentile(0.99) / 1000.0,
+                                             opStats.latency.getPercentile(0.999) / 1000.0));
+        }
+        System.out.println(String.format("%-10s %10d %10.1f %7.2f%%",
+                                         "total", total, total / seconds,
+                                         total == 0 ? 0.0 : 100.0 * errors / total));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption("c", "clients", true, "number of concurrent clients (16)");
+        options.addOption("d", "duration", true, "test duration in seconds (60)");
+        options.addOption("f", "files", true, "files in the directory of each client (100)");
+        options.addOption("s", "size", true, "size of the files in bytes (65536)");
+        options.addOption("m", "mix", true, "operations and weights (" + DEFAULT_MIX + ")");
+        options.addOption("t", "target", true, "host:port of a running gateway instead of an embedded one");
+        options.addOption("a", "auth", true, "user:password to authenticate with");
+        options.addOption("r", "root", true, "directory the clients work in (a temporary directory)");
+        options.addOption("h", "help", false, "print usage information");
+        CommandLineParser parser = new GnuParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("LoadGenerator", "Load test a WebDAV gateway.", options, "");
+            return;
+        }
+        int clients = Integer.parseInt(cmd.getOptionValue("clients", "16"));
+        long duration = Long.parseLong(cmd.getOptionValue("duration", "60"));
+        int files = Integer.parseInt(cmd.getOptionValue("files", "100"));
+        int size = Integer.parseInt(cmd.getOptionValue("size", "65536"));
+        String mix = cmd.getOptionValue("mix", DEFAULT_MIX);
+
+        WebdavServer server = null;
+        File tempDir = null;
+        String host;
+        int port;
+        String root = cmd.getOptionValue("root");
+        if (cmd.hasOption("target")) {
+            String[] target = cmd.getOptionValue("target").split(":");
+            host = target[0];
+            port = Integer.parseInt(target[1]);
+            if (root == null) {
+                root = "/tmp/webdav-loadgen-" + System.currentTimeMillis();
+            }
+        } else {
+            if (root == null) {
+                tempDir = BenchmarkUtil.createDirectory(0, 0);
+                root = tempDir.getPath();
+            }
+            WebdavServlet.setConf(BenchmarkUtil.createConf());
+            server = new WebdavServer("127.0.0.1", 0);
+            server.start();
+            host = "127.0.0.1";
+            port = server.getPort();
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(host, port, root, files, size, mix);
+            if (cmd.hasOption("auth")) {
+                String auth = cmd.getOptionValue("auth");
+                int colon = auth.indexOf(':');
+                generator.setCredentials(auth.substring(0, colon), auth.substring(colon + 1));
+            }
+            if (cmd.hasOption("target")) {
+                expect(generator.createClient().execute("MKCOL", generator.rootPath, null, null), 201);
+            }
+            generator.run(clients, duration);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            if (tempDir != null) {
+                FileUtil.fullyDelete(tempDir);
+            }
+        }
+    }
+}
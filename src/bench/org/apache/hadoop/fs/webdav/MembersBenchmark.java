@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Listing directories of growing size, with and without rendering the
+ * properties of every member.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MembersBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    private File dir;
+    private FSDavResource directory;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = BenchmarkUtil.createDirectory(entries, 0);
+        directory = new BenchmarkUtil.Resources(BenchmarkUtil.createConf()).get(dir.getPath());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtil.fullyDelete(dir);
+    }
+
+    @Benchmark
+    public void getMembers(Blackhole bh) {
+        DavResourceIterator it = directory.getMembers();
+        while (it.hasNext()) {
+            bh.consume(it.nextResource());
+        }
+    }
+
+    @Benchmark
+    public void getMembersProperties(Blackhole bh) {
+        DavResourceIterator it = directory.getMembers();
+        while (it.hasNext()) {
+            bh.consume(it.nextResource().getProperties());
+        }
+    }
+}
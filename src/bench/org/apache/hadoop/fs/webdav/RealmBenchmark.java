@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Role lookups in account files of growing size. Every user has a role of
+ * its own among {@link #ROLES} plus a role shared by everybody.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RealmBenchmark {
+
+    private static final int ROLES = 50;
+
+    @Param({"100", "10000", "100000"})
+    public int users;
+
+    private File accounts;
+    private WebdavHashUserRealm realm;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        accounts = File.createTempFile("webdav-bench-accounts", ".properties");
+        PrintWriter out = new PrintWriter(new FileWriter(accounts));
+        try {
+            for (int i = 0; i < users; i++) {
+                out.println("user" + i + ": password" + i + ",role" + (i % ROLES) + ",hdfs-user");
+            }
+        } finally {
+            out.close();
+        }
+        realm = new WebdavHashUserRealm("bench", accounts.getPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        accounts.delete();
+    }
+
+    @Benchmark
+    public List<String> getUserRoles() {
+        next = (next + 7919) % users;
+        return realm.getUserRoles("user" + next);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
+import org.apache.jackrabbit.webdav.security.CurrentUserPrivilegeSetProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Costs of rendering a single resource.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ResourceBenchmark {
+
+    private File dir;
+    private String filePath;
+    private BenchmarkUtil.Resources resources;
+    private FSDavResource file;
+    private FileStatus fileStatus;
+    private UnixUserGroupInformation ugi;
+
+    @Setup
+    public void setUp() throws Exception {
+        Configuration conf = BenchmarkUtil.createConf();
+        dir = BenchmarkUtil.createDirectory(1, 1024);
+        filePath = new File(dir, "f0").getPath();
+        resources = new BenchmarkUtil.Resources(conf);
+        file = resources.get(filePath);
+        fileStatus = FileSystem.getLocal(conf).getFileStatus(new Path(filePath));
+        ugi = FSDavSession.getSecurityContext(resources.getSession()).getUgi();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtil.fullyDelete(dir);
+    }
+
+    /**
+     * A fresh resource computing its properties, as done for every entry of
+     * a PROPFIND.
+     */
+    @Benchmark
+    public DavPropertySet initProperties() throws DavException {
+        return resources.get(filePath).getProperties();
+    }
+
+    @Benchmark
+    public String getHref() {
+        return file.getHref();
+    }
+
+    @Benchmark
+    public CurrentUserPrivilegeSetProperty currentUserPrivilegeSet() {
+        return UtilsHelper.getCurrentUserPrivilegeSetProperty(fileStatus, ugi);
+    }
+}
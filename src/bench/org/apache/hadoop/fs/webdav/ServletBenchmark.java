@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole requests dispatched through {@link WebdavServlet}, running in an
+ * embedded Jetty on the loopback interface in front of the local
+ * filesystem.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ServletBenchmark {
+
+    private static final int FILES = 100;
+    private static final int FILE_SIZE = 64 * 1024;
+
+    private static final Map<String, String> DEPTH_1 = Collections.singletonMap("Depth", "1");
+
+    private File dir;
+    private Server server;
+    private BenchmarkClient client;
+    private String dirPath;
+    private byte[] upload = new byte[FILE_SIZE];
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = BenchmarkUtil.createDirectory(FILES, FILE_SIZE);
+        dirPath = dir.toURI().getRawPath();
+        WebdavServlet.setConf(BenchmarkUtil.createConf());
+
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.setConnectors(new Connector[]{connector});
+        Context context = new Context(server, "/", Context.NO_SESSIONS);
+        context.addServlet(new ServletHolder(new WebdavServlet()), "/*");
+        server.start();
+        client = new BenchmarkClient("127.0.0.1", connector.getLocalPort());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        FileUtil.fullyDelete(dir);
+    }
+
+    private static int check(int status) throws IOException {
+        if (status >= 400) {
+            throw new IOException("Request failed with status " + status);
+        }
+        return status;
+    }
+
+    @Benchmark
+    public int propfind() throws IOException {
+        return check(client.execute("PROPFIND", dirPath, DEPTH_1, null));
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        return check(client.execute("GET", dirPath + "f0", null, null));
+    }
+
+    @Benchmark
+    public int put() throws IOException {
+        return check(client.execute("PUT", dirPath + "upload", null, upload));
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Writes one record per request to the <code>org.apache.hadoop.fs.webdav.AccessLog</code>
+ * logger, in the form
+ * <pre>
+ * method=GET path=/user/foo/bar status=200 bytes=1024 latency=12 user=foo
+ * </pre>
+ * with the latency in milliseconds. Records are handed to a background
+ * thread through a bounded buffer, so that request threads never wait on the
+ * log appenders; when the buffer is full records are dropped and counted.
+ * Successful requests can be sampled, failed ones (status 400 and above)
+ * are always logged.
+ */
+public class AccessLog {
+
+    private static final Log LOG = LogFactory.getLog(AccessLog.class);
+
+    public static final String ENABLED_KEY = "hadoop.webdav.accesslog.enabled";
+
+    /**
+     * Number of records waiting to be written before new ones are dropped.
+     */
+    public static final String BUFFER_KEY = "hadoop.webdav.accesslog.buffer";
+    public static final int DEFAULT_BUFFER = 8192;
+
+    /**
+     * Only one successful request out of this many is logged.
+     */
+    public static final String SAMPLE_KEY = "hadoop.webdav.accesslog.sample.every";
+    public static final int DEFAULT_SAMPLE = 1;
+
+    private final BlockingQueue<Record> queue;
+    private final int sampleEvery;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+
+    private static class Record {
+        final String method;
+        final String path;
+        final int status;
+        final long bytes;
+        final long latency;
+        final String user;
+
+        Record(String method, String path, int status, long bytes, long latency, String user) {
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.bytes = bytes;
+            this.latency = latency;
+            this.user = user;
+        }
+
+        public String toString() {
+            StringBuilder buffer = new StringBuilder(128);
+            buffer.append("method=").append(method);
+            buffer.append(" path=").append(path);
+            buffer.append(" status=").append(status);
+            buffer.append(" bytes=").append(bytes);
+            buffer.append(" latency=").append(latency);
+            buffer.append(" user=").append(user == null ? "-" : user);
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Returns the access log configured in <code>conf</code>, or null if
+     * access logging is disabled.
+     */
+    public static AccessLog create(Configuration conf) {
+        if (!conf.getBoolean(ENABLED_KEY, true)) {
+            return null;
+        }
+        return new AccessLog(conf);
+    }
+
+    public AccessLog(Configuration conf) {
+        this.queue = new ArrayBlockingQueue<Record>(Math.max(1, conf.getInt(BUFFER_KEY, DEFAULT_BUFFER)));
+        this.sampleEvery = Math.max(1, conf.getInt(SAMPLE_KEY, DEFAULT_SAMPLE));
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "webdav-access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the record of a finished request.
+     */
+    public void log(String method, String path, int status, long bytes, long latency, String user) {
+        if (status < 400 && sampleEvery > 1 && requests.incrementAndGet() % sampleEvery != 0) {
+            return;
+        }
+        if (!queue.offer(new Record(method, path, status, bytes, latency, user))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                Record record = queue.take();
+                LOG.info(record);
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    LOG.warn(lost + " access log records dropped, buffer full");
+                }
+            }
+        } catch (InterruptedException ex) {
+            // closed
+        }
+    }
+
+    /**
+     * Stops the background thread. Records not written yet are lost.
+     */
+    public void close() {
+        writer.interrupt();
+    }
+}
@@ -0,0 +1,561 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Decides which requests are executed, in front of the servlet. Each user
+ * (or each address for anonymous clients) has a token bucket bounding its
+ * request rate, and optionally one per method, so that a client flooding
+ * the gateway with PROPFINDs runs out of tokens long before the others
+ * notice. Requests within their rate are executed at most
+ * <code>max.active</code> at a time; past that they wait in a bounded queue
+ * served by start-time fair queuing: each user advances a virtual clock by
+ * the inverse of its weight per request started, and the waiting user
+ * furthest behind goes first, so that a busy user cannot crowd out the
+ * others however many requests it queues. The bytes of uploads and
+ * downloads in progress are capped as well.
+ * <p/>
+ * A request that is over its rate, finds the queue full, waits too long
+ * or goes over a byte cap is rejected at once, to be answered with
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code>.
+ * <p/>
+ * Waiting requests hold a server thread each, so the queue never takes
+ * more threads than those left once <code>max.active</code> requests run,
+ * less a tenth kept for the requests coming in: with 250 threads and 200
+ * active requests, 25 wait at most. Raise the threads of the server
+ * (<code>-T</code>) along with <code>max.active</code> and the queue.
+ */
+public class AdmissionController {
+
+    private static final Log LOG = LogFactory.getLog(AdmissionController.class);
+
+    public static final String ENABLED_KEY = "hadoop.webdav.admission.enabled";
+
+    /**
+     * Requests per second allowed to a user, 0 for no limit.
+     */
+    public static final String USER_RATE_KEY = "hadoop.webdav.admission.user.rate";
+    public static final float DEFAULT_USER_RATE = 50;
+
+    /**
+     * Requests a user can make at once after having been idle.
+     */
+    public static final String USER_BURST_KEY = "hadoop.webdav.admission.user.burst";
+    public static final int DEFAULT_USER_BURST = 100;
+
+    /**
+     * Prefix of the per-method limits of each user, followed by the lower
+     * case method name and <code>.rate</code> or <code>.burst</code>, e.g.
+     * <code>hadoop.webdav.admission.method.propfind.rate</code>. Only
+     * PROPFIND is limited by default.
+     */
+    public static final String METHOD_KEY_PREFIX = "hadoop.webdav.admission.method.";
+    public static final float DEFAULT_PROPFIND_RATE = 20;
+    public static final int DEFAULT_PROPFIND_BURST = 50;
+
+    /**
+     * Prefix of the weight of a user in the queue, followed by the user
+     * name. Users have a weight of 1 by default.
+     */
+    public static final String WEIGHT_KEY_PREFIX = "hadoop.webdav.admission.weight.";
+
+    /**
+     * Requests executed at once.
+     */
+    public static final String MAX_ACTIVE_KEY = "hadoop.webdav.admission.max.active";
+    public static final int DEFAULT_MAX_ACTIVE = 200;
+
+    /**
+     * Requests waiting to be executed before new ones are rejected.
+     */
+    public static final String QUEUE_SIZE_KEY = "hadoop.webdav.admission.queue.size";
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * Threads the server executes requests on, which bound the queue. Set
+     * by {@link WebdavServer} from its options.
+     */
+    public static final String THREADS_KEY = "hadoop.webdav.admission.threads";
+    public static final int DEFAULT_THREADS = 250;
+
+    /**
+     * Longest time a request waits in the queue, in milliseconds.
+     */
+    public static final String QUEUE_TIMEOUT_KEY = "hadoop.webdav.admission.queue.timeout";
+    public static final long DEFAULT_QUEUE_TIMEOUT = 5 * 1000L;
+
+    /**
+     * Bytes of uploads in progress, as announced by their
+     * <code>Content-Length</code>.
+     */
+    public static final String MAX_UPLOAD_BYTES_KEY = "hadoop.webdav.admission.upload.max.bytes";
+    public static final long DEFAULT_MAX_UPLOAD_BYTES = 1024L * 1024 * 1024;
+
+    /**
+     * Bytes of downloads in progress.
+     */
+    public static final String MAX_DOWNLOAD_BYTES_KEY = "hadoop.webdav.admission.download.max.bytes";
+    public static final long DEFAULT_MAX_DOWNLOAD_BYTES = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * Seconds a client is told to wait when rejected for lack of capacity
+     * rather than over its rate.
+     */
+    public static final String RETRY_AFTER_KEY = "hadoop.webdav.admission.retry.after";
+    public static final int DEFAULT_RETRY_AFTER = 2;
+
+    /**
+     * Time in milliseconds between two sweeps of the idle buckets.
+     */
+    private static final long PURGE_INTERVAL = 60 * 1000L;
+
+    private static final int MAX_METHODS = 64;
+
+    private final Configuration conf;
+    private final Limit userLimit;
+    private final int maxActive;
+    private final int maxQueued;
+    private final long queueTimeout;
+    private final long maxUploadBytes;
+    private final long maxDownloadBytes;
+    private final int retryAfter;
+
+    /** The limits of the methods seen, {@link Limit#NONE} for those not limited */
+    private final ConcurrentHashMap<String, Limit> methodLimits = new ConcurrentHashMap<String, Limit>();
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    // guarded by this
+    private final Map<String, User> users = new HashMap<String, User>();
+    private final LinkedHashSet<User> backlogged = new LinkedHashSet<User>();
+    private int active = 0;
+    private int queued = 0;
+    private long sequence = 0;
+    private double virtualClock = 0;
+    private long uploadBytes = 0;
+    private long downloadBytes = 0;
+
+    /**
+     * Returns a controller configured from the given configuration, or
+     * null if admission control is disabled.
+     */
+    public static AdmissionController create(Configuration conf) {
+        if (!conf.getBoolean(ENABLED_KEY, false)) {
+            return null;
+        }
+        return new AdmissionController(conf);
+    }
+
+    public AdmissionController(Configuration conf) {
+        this.conf = conf;
+        this.userLimit = Limit.create(conf.getFloat(USER_RATE_KEY, DEFAULT_USER_RATE),
+                                      conf.getInt(USER_BURST_KEY, DEFAULT_USER_BURST));
+        this.maxActive = Math.max(1, conf.getInt(MAX_ACTIVE_KEY, DEFAULT_MAX_ACTIVE));
+        int threads = conf.getInt(THREADS_KEY, DEFAULT_THREADS);
+        int spareThreads = Math.max(0, threads - maxActive - threads / 10);
+        int queueSize = conf.getInt(QUEUE_SIZE_KEY, DEFAULT_QUEUE_SIZE);
+        if (queueSize > spareThreads) {
+            if (conf.get(QUEUE_SIZE_KEY) != null) {
+                LOG.warn("Queue of " + queueSize + " requests capped to " + spareThreads
+                         + ", the threads left of " + threads + " once " + maxActive + " requests run");
+            }
+            queueSize = spareThreads;
+        }
+        this.maxQueued = queueSize;
+        this.queueTimeout = conf.getLong(QUEUE_TIMEOUT_KEY, DEFAULT_QUEUE_TIMEOUT);
+        this.maxUploadBytes = conf.getLong(MAX_UPLOAD_BYTES_KEY, DEFAULT_MAX_UPLOAD_BYTES);
+        this.maxDownloadBytes = conf.getLong(MAX_DOWNLOAD_BYTES_KEY, DEFAULT_MAX_DOWNLOAD_BYTES);
+        this.retryAfter = Math.max(1, conf.getInt(RETRY_AFTER_KEY, DEFAULT_RETRY_AFTER));
+        LOG.info("Admission control: " + maxActive + " active requests, " + maxQueued + " queued");
+    }
+
+    /**
+     * A rate and a burst size.
+     */
+    private static class Limit {
+        static final Limit NONE = new Limit(0, 1);
+
+        final float rate;
+        final int burst;
+
+        private Limit(float rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        /**
+         * Returns the limit, or null if the rate is not positive.
+         */
+        static Limit create(float rate, int burst) {
+            return rate > 0 ? new Limit(rate, Math.max(1, burst)) : null;
+        }
+    }
+
+    /**
+     * Tokens refilled at a constant rate, one taken per request.
+     */
+    private static class TokenBucket {
+        private final Limit limit;
+        private double tokens;
+        private long last;
+
+        TokenBucket(Limit limit, long now) {
+            this.limit = limit;
+            this.tokens = limit.burst;
+            this.last = now;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return 0 if a token was taken, otherwise the number of
+         *         milliseconds until one is available
+         */
+        synchronized long take(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / limit.rate));
+        }
+
+        /**
+         * Gives back a token taken for a request rejected by another bucket.
+         */
+        synchronized void giveBack() {
+            tokens = Math.min(limit.burst, tokens + 1);
+        }
+
+        /**
+         * Tells whether the bucket is full again, and so can be dropped.
+         */
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= limit.burst;
+        }
+
+        private void refill(long now) {
+            if (now > last) {
+                tokens = Math.min(limit.burst, tokens + (now - last) * limit.rate / 1000);
+                last = now;
+            }
+        }
+    }
+
+    /**
+     * The requests of a user being executed or waiting.
+     */
+    private static class User {
+        final String name;
+        final int weight;
+        int active = 0;
+        /** Virtual time at which the next request of the user may start */
+        double virtualTime = 0;
+        final LinkedList<Ticket> waiting = new LinkedList<Ticket>();
+
+        User(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        /**
+         * Tells whether this user should be served before the given one.
+         */
+        boolean before(User other, double clock) {
+            double start = Math.max(virtualTime, clock);
+            double otherStart = Math.max(other.virtualTime, clock);
+            if (start != otherStart) {
+                return start < otherStart;
+            }
+            return waiting.getFirst().sequence < other.waiting.getFirst().sequence;
+        }
+    }
+
+    /**
+     * The outcome of the admission of a request. An admitted request must
+     * be released once answered.
+     */
+    public class Ticket {
+        private final String user;
+        private final long sequence;
+        private boolean admitted = false;
+        private int retryAfter;
+        private long upload = 0;
+        private long download = 0;
+
+        private Ticket(String user, long sequence) {
+            this.user = user;
+            this.sequence = sequence;
+        }
+
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        /**
+         * Returns the number of seconds after which a rejected request can
+         * be tried again.
+         */
+        public int getRetryAfter() {
+            return retryAfter;
+        }
+
+        /**
+         * Reserves the bytes of a download about to start.
+         *
+         * @return false if the download would go over the cap, in which
+         *         case the request is to be rejected
+         */
+        public boolean reserveDownload(long bytes) {
+            synchronized (AdmissionController.this) {
+                if (bytes > 0 && downloadBytes > 0 && downloadBytes + bytes > maxDownloadBytes) {
+                    retryAfter = AdmissionController.this.retryAfter;
+                    return false;
+                }
+                download += bytes;
+                downloadBytes += bytes;
+                return true;
+            }
+        }
+
+        /**
+         * Gives back the place and the bytes held by the request.
+         */
+        public void release() {
+            synchronized (AdmissionController.this) {
+                uploadBytes -= upload;
+                downloadBytes -= download;
+                upload = 0;
+                download = 0;
+                if (admitted) {
+                    admitted = false;
+                    User u = users.get(user);
+                    u.active--;
+                    active--;
+                    if (u.active == 0 && u.waiting.isEmpty()) {
+                        users.remove(user);
+                    }
+                    dispatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Admits a request, waiting for a place if needed.
+     *
+     * @param user the name of the user, or the address of an anonymous client
+     * @param method the method of the request
+     * @param uploadLength the announced length of the request body, -1 if unknown
+     * @return the ticket of the request, which tells whether it was admitted
+     */
+    public Ticket admit(String user, String method, long uploadLength) {
+        long now = System.currentTimeMillis();
+        purge(now);
+
+        long wait = take(user, userLimit, now);
+        if (wait == 0) {
+            wait = take(user + " " + method, getMethodLimit(method), now);
+            if (wait > 0) {
+                // a request over the rate of its method costs the user nothing
+                giveBack(user);
+            }
+        }
+
+        synchronized (this) {
+            Ticket ticket = new Ticket(user, sequence++);
+            if (wait > 0) {
+                ticket.retryAfter = (int) ((wait + 999) / 1000);
+                LOG.debug("Rejected " + method + " from " + user + ": over rate");
+                return ticket;
+            }
+            if (uploadLength > 0) {
+                if (uploadBytes > 0 && uploadBytes + uploadLength > maxUploadBytes) {
+                    return reject(ticket, method, "too many bytes uploading");
+                }
+                ticket.upload = uploadLength;
+                uploadBytes += uploadLength;
+            }
+
+            User u = users.get(user);
+            if (u == null) {
+                u = new User(user, Math.max(1, conf.getInt(WEIGHT_KEY_PREFIX + user, 1)));
+                users.put(user, u);
+            }
+            if (active < maxActive && queued == 0) {
+                start(u, ticket);
+                return ticket;
+            }
+            if (queued >= maxQueued) {
+                if (u.active == 0 && u.waiting.isEmpty()) {
+                    users.remove(user);
+                }
+                return reject(ticket, method, "queue full");
+            }
+
+            u.waiting.add(ticket);
+            backlogged.add(u);
+            queued++;
+            long deadline = now + queueTimeout;
+            try {
+                while (!ticket.admitted) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (ticket.admitted) {
+                return ticket;
+            }
+            u.waiting.remove(ticket);
+            queued--;
+            if (u.waiting.isEmpty()) {
+                backlogged.remove(u);
+                if (u.active == 0) {
+                    users.remove(user);
+                }
+            }
+            return reject(ticket, method, "timed out in queue");
+        }
+    }
+
+    private Ticket reject(Ticket ticket, String method, String reason) {
+        uploadBytes -= ticket.upload;
+        ticket.upload = 0;
+        ticket.retryAfter = retryAfter;
+        LOG.debug("Rejected " + method + " from " + ticket.user + ": " + reason);
+        return ticket;
+    }
+
+    private void start(User u, Ticket ticket) {
+        virtualClock = Math.max(u.virtualTime, virtualClock);
+        u.virtualTime = virtualClock + 1.0 / u.weight;
+        ticket.admitted = true;
+        u.active++;
+        active++;
+    }
+
+    /**
+     * Hands the free places to the waiting requests, the user with the
+     * earliest virtual start time first.
+     */
+    private void dispatch() {
+        boolean started = false;
+        while (active < maxActive && !backlogged.isEmpty()) {
+            User next = null;
+            for (User u : backlogged) {
+                if (next == null || u.before(next, virtualClock)) {
+                    next = u;
+                }
+            }
+            start(next, next.waiting.removeFirst());
+            queued--;
+            if (next.waiting.isEmpty()) {
+                backlogged.remove(next);
+            }
+            started = true;
+        }
+        if (started) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Takes a token from the given bucket, created full if needed.
+     *
+     * @return 0 if a token was taken or there is no limit, otherwise the
+     *         number of milliseconds until one is available
+     */
+    private long take(String key, Limit limit, long now) {
+        if (limit == null) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket(limit, now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket.take(now);
+    }
+
+    private void giveBack(String key) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.giveBack();
+        }
+    }
+
+    /**
+     * Returns the limit of the given method, or null if it is not limited.
+     */
+    private Limit getMethodLimit(String method) {
+        Limit limit = methodLimits.get(method);
+        if (limit == null) {
+            String prefix = METHOD_KEY_PREFIX + method.toLowerCase() + ".";
+            boolean propfind = method.equals("PROPFIND");
+            limit = Limit.create(conf.getFloat(prefix + "rate", propfind ? DEFAULT_PROPFIND_RATE : 0),
+                                 conf.getInt(prefix + "burst", propfind ? DEFAULT_PROPFIND_BURST : 1));
+            if (limit == null) {
+                limit = Limit.NONE;
+            }
+            // clients can make up methods, only so many are remembered
+            if (methodLimits.size() < MAX_METHODS) {
+                methodLimits.put(method, limit);
+            }
+        }
+        return limit == Limit.NONE ? null : limit;
+    }
+
+    /**
+     * Drops the buckets that filled up again, so that the map does not
+     * grow with every client ever seen.
+     */
+    private void purge(long now) {
+        long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + PURGE_INTERVAL)) {
+            return;
+        }
+        Iterator<TokenBucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isFull(now)) {
+                it.remove();
+            }
+        }
+    }
+}
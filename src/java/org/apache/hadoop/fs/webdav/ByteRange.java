@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of an entity, as requested through the HTTP
+ * <code>Range</code> header. Both ends are inclusive.
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Returns the value of the <code>Content-Range</code> header describing
+     * this range of an entity of the given length.
+     */
+    public String toContentRange(long entityLength) {
+        return "bytes " + start + "-" + end + "/" + entityLength;
+    }
+
+    /**
+     * Parses the value of a <code>Range</code> header against an entity of the
+     * given length.
+     *
+     * @return the satisfiable ranges in the requested order, an empty list if
+     *         none of them is satisfiable, or <code>null</code> if the header
+     *         is malformed and must be ignored
+     */
+    public static List<ByteRange> parse(String header, long entityLength) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>();
+        boolean hasSpec = false;
+        String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        for (String spec : specs) {
+            spec = spec.trim();
+            if (spec.length() == 0) {
+                continue;
+            }
+            hasSpec = true;
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            try {
+                if (first.length() == 0) {
+                    // suffix range: the last n bytes
+                    if (last.length() == 0) {
+                        return null;
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix == 0 || entityLength == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, entityLength - suffix);
+                    end = entityLength - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.length() == 0 ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start >= entityLength) {
+                        continue;
+                    }
+                    end = Math.min(end, entityLength - 1);
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+            ranges.add(new ByteRange(start, end));
+        }
+        return hasSpec ? ranges : null;
+    }
+
+    /**
+     * Merges the ranges that overlap or are adjacent, so that no byte is
+     * sent twice.
+     *
+     * @return the merged ranges in ascending order
+     */
+    public static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+        Collections.sort(sorted, new Comparator<ByteRange>() {
+            public int compare(ByteRange a, ByteRange b) {
+                return a.start < b.start ? -1 : a.start == b.start ? 0 : 1;
+            }
+        });
+        List<ByteRange> merged = new ArrayList<ByteRange>();
+        ByteRange current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++) {
+            ByteRange next = sorted.get(i);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    public String toString() {
+        return start + "-" + end;
+    }
+}
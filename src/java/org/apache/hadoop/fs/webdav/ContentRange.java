@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+/**
+ * The <code>Content-Range</code> header of a PUT request sending part of a
+ * file, as in <code>bytes 0-1048575/4194304</code>. The complete length may
+ * be unknown (<code>bytes 0-1048575/*</code>), and <code>bytes *&#47;4194304</code>
+ * sends no content, only asking how much of the file has been received.
+ */
+public class ContentRange {
+
+    private final long first;
+    private final long last;
+    private final long total;
+
+    private ContentRange(long first, long last, long total) {
+        this.first = first;
+        this.last = last;
+        this.total = total;
+    }
+
+    /**
+     * Returns the offset of the first byte sent, or -1 if no content is sent.
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * Returns the offset of the last byte sent, inclusive, or -1 if no
+     * content is sent.
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * Returns the number of bytes sent.
+     */
+    public long getLength() {
+        return isQuery() ? 0 : last - first + 1;
+    }
+
+    /**
+     * Returns the complete length of the file, or -1 if unknown.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Whether the request only asks for the length received so far.
+     */
+    public boolean isQuery() {
+        return first < 0;
+    }
+
+    /**
+     * Parses a <code>Content-Range</code> header.
+     *
+     * @return the range, or null if the header is malformed
+     */
+    public static ContentRange parse(String header) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        if (!header.startsWith("bytes")) {
+            return null;
+        }
+        String spec = header.substring("bytes".length()).trim();
+        int slash = spec.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        String range = spec.substring(0, slash).trim();
+        String length = spec.substring(slash + 1).trim();
+        try {
+            long total = length.equals("*") ? -1 : Long.parseLong(length);
+            if (range.equals("*")) {
+                return total < 0 ? null : new ContentRange(-1, -1, total);
+            }
+            int dash = range.indexOf('-');
+            if (dash <= 0) {
+                return null;
+            }
+            long first = Long.parseLong(range.substring(0, dash).trim());
+            long last = Long.parseLong(range.substring(dash + 1).trim());
+            if (first < 0 || last < first || (total >= 0 && last >= total)) {
+                return null;
+            }
+            return new ContentRange(first, last, total);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
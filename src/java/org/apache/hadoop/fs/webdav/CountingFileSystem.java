@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Counts the calls made to the namenode through a filesystem client into
+ * the {@link WebdavMetrics}.
+ */
+public class CountingFileSystem extends FilterFileSystem {
+
+    private final WebdavMetrics metrics;
+
+    public CountingFileSystem(FileSystem fs, WebdavMetrics metrics) {
+        super(fs);
+        this.metrics = metrics;
+    }
+
+    public FileStatus getFileStatus(Path f) throws IOException {
+        metrics.getFileStatusCalls.incrementAndGet();
+        return super.getFileStatus(f);
+    }
+
+    public FileStatus[] listStatus(Path f) throws IOException {
+        metrics.listStatusCalls.incrementAndGet();
+        return super.listStatus(f);
+    }
+
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        metrics.openCalls.incrementAndGet();
+        return super.open(f, bufferSize);
+    }
+
+    public FSDataOutputStream create(Path f,
+                                     FsPermission permission,
+                                     boolean overwrite,
+                                     int bufferSize,
+                                     short replication,
+                                     long blockSize,
+                                     Progressable progress) throws IOException {
+        metrics.createCalls.incrementAndGet();
+        return super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+    }
+}
@@ -0,0 +1,617 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.jackrabbit.webdav.property.AbstractDavProperty;
+import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+import org.apache.jackrabbit.webdav.xml.Namespace;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+/**
+ * Stores the dead properties clients set with PROPPATCH, by path.
+ * <p/>
+ * All the properties are held in memory, in an index sorted by path so that
+ * the properties of a whole tree can be moved, copied or dropped at once.
+ * Every change is appended to a log, in a filesystem of its own which may
+ * be the local disk or HDFS. The log is replayed on start and periodically
+ * compacted into a snapshot of the properties alive. Records only ever set
+ * or remove properties, so replaying the log over a newer snapshot, after a
+ * crash during compaction, gives the same result.
+ * <p/>
+ * Compaction starts a new log, numbered after the current one, and writes
+ * the snapshot while changes go on to the new log; the older logs are
+ * deleted once the snapshot is in place.
+ */
+public class DeadPropertyStore {
+
+    private static final Log LOG = LogFactory.getLog(DeadPropertyStore.class);
+
+    /**
+     * Directory holding the snapshot and the log, in any Hadoop filesystem.
+     */
+    public static final String DIR_KEY = "hadoop.webdav.properties.dir";
+    public static final String DEFAULT_DIR = "file://${hadoop.tmp.dir}/webdav/properties";
+
+    /**
+     * Time in milliseconds between two checks whether the log is worth
+     * compacting.
+     */
+    public static final String COMPACT_INTERVAL_KEY = "hadoop.webdav.properties.compact.interval";
+    public static final long DEFAULT_COMPACT_INTERVAL = 10 * 60 * 1000L;
+
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SNAPSHOT_NEW = "snapshot.new";
+    private static final String LOG_PREFIX = "log.";
+
+    private static final int MAGIC = 0x44505331; // "DPS1"
+
+    private static final byte OP_SET_EMPTY = 1;
+    private static final byte OP_SET_TEXT = 2;
+    private static final byte OP_SET_XML = 3;
+    private static final byte OP_REMOVE = 4;
+    private static final byte OP_DROP = 5;
+
+    /** Compaction is skipped while the log holds fewer records */
+    private static final long MIN_COMPACT_RECORDS = 1000;
+
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+    /**
+     * The properties of each path. The maps are never modified once
+     * published, changes replace them.
+     */
+    private final ConcurrentNavigableMap<String, Map<DavPropertyName, DavProperty>> properties
+        = new ConcurrentSkipListMap<String, Map<DavPropertyName, DavProperty>>();
+
+    private final FileSystem fs;
+    private final Path dir;
+    private FSDataOutputStream log;
+    private long logNumber = 0;
+    private long logRecords = 0;
+    private long count = 0;
+
+    /**
+     * A property whose value is markup. It is kept serialized, which takes
+     * far less memory than a DOM tree, and parsed when rendered.
+     */
+    private static class XmlProperty extends AbstractDavProperty {
+        private final String xml;
+
+        XmlProperty(DavPropertyName name, String xml) {
+            super(name, false);
+            this.xml = xml;
+        }
+
+        public Object getValue() {
+            return xml;
+        }
+
+        @Override
+        public Element toXml(Document document) {
+            try {
+                Document parsed = DomUtil.BUILDER_FACTORY.newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(xml)));
+                return (Element) document.importNode(parsed.getDocumentElement(), true);
+            } catch (Exception ex) {
+                LOG.warn("Invalid value of " + getName() + ": " + ex);
+                return getName().toXml(document);
+            }
+        }
+    }
+
+    public DeadPropertyStore(Configuration conf) {
+        FileSystem storeFs = null;
+        Path storeDir = new Path(conf.get(DIR_KEY, DEFAULT_DIR));
+        try {
+            storeFs = storeDir.getFileSystem(conf);
+            storeFs.mkdirs(storeDir);
+            load(storeFs, storeDir);
+        } catch (IOException ex) {
+            LOG.warn("Dead properties will not be persisted: " + StringUtils.stringifyException(ex));
+            storeFs = null;
+        }
+        this.fs = storeFs;
+        this.dir = storeDir;
+        if (fs != null) {
+            try {
+                compact();
+            } catch (IOException ex) {
+                LOG.warn(StringUtils.stringifyException(ex));
+            }
+            long interval = conf.getLong(COMPACT_INTERVAL_KEY, DEFAULT_COMPACT_INTERVAL);
+            if (interval > 0) {
+                ScheduledExecutorService compactor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "webdav-properties-compaction");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                compactor.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        compactIfWorthwhile();
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Returns the dead properties of a path, empty if it has none.
+     */
+    public Map<DavPropertyName, DavProperty> get(Path path) {
+        Map<DavPropertyName, DavProperty> props = properties.get(FileStatusCache.getKey(path));
+        return props == null ? Collections.<DavPropertyName, DavProperty>emptyMap() : props;
+    }
+
+    /**
+     * Sets and removes properties of a path, all at once.
+     *
+     * @throws IOException if the change could not be logged, in which case
+     *         nothing is changed
+     */
+    public synchronized void update(Path path, List<DavProperty> set, List<DavPropertyName> remove)
+        throws IOException {
+        String key = FileStatusCache.getKey(path);
+        Map<DavPropertyName, DavProperty> props
+            = new HashMap<DavPropertyName, DavProperty>(get(path));
+        Batch batch = new Batch();
+        for (DavPropertyName name : remove) {
+            if (props.remove(name) != null) {
+                batch.remove(key, name);
+            }
+        }
+        for (DavProperty property : set) {
+            property = toStored(property);
+            props.put(property.getName(), property);
+            batch.set(key, property);
+        }
+        write(batch);
+        put(key, props);
+    }
+
+    /**
+     * Drops the properties of a path and of everything below it.
+     */
+    public synchronized void removeTree(Path path) {
+        String key = FileStatusCache.getKey(path);
+        Batch batch = new Batch();
+        Map<String, Map<DavPropertyName, DavProperty>> tree = getTree(key);
+        for (String drop : tree.keySet()) {
+            batch.drop(drop);
+        }
+        writeQuietly(batch);
+        for (String drop : tree.keySet()) {
+            put(drop, null);
+        }
+    }
+
+    /**
+     * Moves the properties of a tree to another path, replacing those there.
+     */
+    public synchronized void move(Path src, Path dst) {
+        transfer(FileStatusCache.getKey(src), FileStatusCache.getKey(dst), true);
+    }
+
+    /**
+     * Copies the properties of a tree to another path, replacing those there.
+     */
+    public synchronized void copy(Path src, Path dst) {
+        transfer(FileStatusCache.getKey(src), FileStatusCache.getKey(dst), false);
+    }
+
+    private void transfer(String srcKey, String dstKey, boolean move) {
+        Map<String, Map<DavPropertyName, DavProperty>> moved = getTree(srcKey);
+        Map<String, Map<DavPropertyName, DavProperty>> replaced = getTree(dstKey);
+        Batch batch = new Batch();
+        for (String drop : replaced.keySet()) {
+            batch.drop(drop);
+        }
+        for (Map.Entry<String, Map<DavPropertyName, DavProperty>> entry : moved.entrySet()) {
+            if (move) {
+                batch.drop(entry.getKey());
+            }
+            String key = dstKey + entry.getKey().substring(srcKey.length());
+            for (DavProperty property : entry.getValue().values()) {
+                batch.set(key, property);
+            }
+        }
+        writeQuietly(batch);
+        // applied in the order of the records, as a replay would
+        for (String drop : replaced.keySet()) {
+            put(drop, null);
+        }
+        for (Map.Entry<String, Map<DavPropertyName, DavProperty>> entry : moved.entrySet()) {
+            if (move) {
+                put(entry.getKey(), null);
+            }
+            put(dstKey + entry.getKey().substring(srcKey.length()), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the properties of a path and of the paths below it.
+     */
+    private Map<String, Map<DavPropertyName, DavProperty>> getTree(String key) {
+        Map<String, Map<DavPropertyName, DavProperty>> tree
+            = new HashMap<String, Map<DavPropertyName, DavProperty>>();
+        if (key.equals("/")) {
+            tree.putAll(properties);
+            return tree;
+        }
+        Map<DavPropertyName, DavProperty> props = properties.get(key);
+        if (props != null) {
+            tree.put(key, props);
+        }
+        // '0' follows '/', the range holds exactly the paths below key
+        tree.putAll(properties.subMap(key + "/", key + "0"));
+        return tree;
+    }
+
+    private void put(String key, Map<DavPropertyName, DavProperty> props) {
+        Map<DavPropertyName, DavProperty> old;
+        if (props == null || props.isEmpty()) {
+            old = properties.remove(key);
+        } else {
+            old = properties.put(key, Collections.unmodifiableMap(props));
+            count += props.size();
+        }
+        if (old != null) {
+            count -= old.size();
+        }
+    }
+
+    /**
+     * Converts a property received from a client into the form it is kept
+     * in, which holds no reference to the request.
+     */
+    private static DavProperty toStored(DavProperty property) throws IOException {
+        Object value = property.getValue();
+        if (value == null) {
+            return new DefaultDavProperty(property.getName(), null);
+        }
+        if (value instanceof String) {
+            return new DefaultDavProperty(property.getName(), value);
+        }
+        try {
+            Document document = DomUtil.BUILDER_FACTORY.newDocumentBuilder().newDocument();
+            return new XmlProperty(property.getName(), serialize(property.toXml(document)));
+        } catch (Exception ex) {
+            IOException ioe = new IOException("Invalid value of " + property.getName());
+            ioe.initCause(ex);
+            throw ioe;
+        }
+    }
+
+    private static String serialize(Element element) throws TransformerException {
+        Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        StringWriter out = new StringWriter();
+        transformer.transform(new DOMSource(element), new StreamResult(out));
+        return out.toString();
+    }
+
+    /*---------------------------- Persistence ----------------------------*/
+
+    /**
+     * Records to be appended to the log as a whole. A batch cut short by a
+     * crash is ignored when the log is replayed.
+     */
+    private static class Batch {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        int records = 0;
+
+        void set(String key, DavProperty property) {
+            try {
+                Object value = property.getValue();
+                if (value == null) {
+                    out.writeByte(OP_SET_EMPTY);
+                    writeName(key, property.getName());
+                } else if (property instanceof XmlProperty) {
+                    out.writeByte(OP_SET_XML);
+                    writeName(key, property.getName());
+                    writeString(value.toString());
+                } else {
+                    out.writeByte(OP_SET_TEXT);
+                    writeName(key, property.getName());
+                    writeString(value.toString());
+                }
+                records++;
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        void remove(String key, DavPropertyName name) {
+            try {
+                out.writeByte(OP_REMOVE);
+                writeName(key, name);
+                records++;
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        void drop(String key) {
+            try {
+                out.writeByte(OP_DROP);
+                writeString(key);
+                records++;
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private void writeName(String key, DavPropertyName name) throws IOException {
+            writeString(key);
+            writeString(name.getNamespace().getPrefix());
+            writeString(name.getNamespace().getURI());
+            writeString(name.getName());
+        }
+
+        private void writeString(String s) throws IOException {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Appends a batch to the log. Nothing is logged when the store is not
+     * persisted at all.
+     *
+     * @throws IOException if the store is persisted but has no log open
+     */
+    private void write(Batch batch) throws IOException {
+        if (batch.records == 0 || fs == null) {
+            return;
+        }
+        if (log == null) {
+            throw new IOException("No dead property log is open in " + dir);
+        }
+        log.writeInt(batch.buffer.size());
+        batch.buffer.writeTo(log);
+        log.sync();
+        logRecords += batch.records;
+    }
+
+    private void writeQuietly(Batch batch) {
+        try {
+            write(batch);
+        } catch (IOException ex) {
+            LOG.warn("Unable to log dead property changes: " + StringUtils.stringifyException(ex));
+        }
+    }
+
+    /**
+     * Loads the snapshot and replays the logs, oldest first. A snapshot
+     * still being written is ignored, unless the previous one is already
+     * gone.
+     */
+    private void load(FileSystem storeFs, Path storeDir) throws IOException {
+        Path snapshot = new Path(storeDir, SNAPSHOT);
+        Path snapshotNew = new Path(storeDir, SNAPSHOT_NEW);
+        if (storeFs.exists(snapshot)) {
+            storeFs.delete(snapshotNew, false);
+            replay(storeFs, snapshot);
+        } else if (storeFs.exists(snapshotNew)) {
+            replay(storeFs, snapshotNew);
+        }
+        for (long number : getLogNumbers(storeFs, storeDir)) {
+            replay(storeFs, new Path(storeDir, LOG_PREFIX + number));
+            logNumber = number;
+        }
+        LOG.info("Loaded " + count + " dead properties of " + properties.size() + " paths");
+    }
+
+    private void replay(FileSystem storeFs, Path file) throws IOException {
+        DataInputStream in = storeFs.open(file);
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a dead property file");
+            }
+            while (true) {
+                byte[] batch;
+                try {
+                    batch = new byte[in.readInt()];
+                    in.readFully(batch);
+                } catch (EOFException ex) {
+                    break;
+                }
+                apply(new DataInputStream(new java.io.ByteArrayInputStream(batch)));
+            }
+        } finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            String key = readString(in);
+            if (op == OP_DROP) {
+                put(key, null);
+                continue;
+            }
+            Namespace namespace = Namespace.getNamespace(readString(in), readString(in));
+            DavPropertyName name = DavPropertyName.create(readString(in), namespace);
+            Map<DavPropertyName, DavProperty> props
+                = new HashMap<DavPropertyName, DavProperty>(get(new Path(key)));
+            switch (op) {
+            case OP_SET_EMPTY:
+                props.put(name, new DefaultDavProperty(name, null));
+                break;
+            case OP_SET_TEXT:
+                props.put(name, new DefaultDavProperty(name, readString(in)));
+                break;
+            case OP_SET_XML:
+                props.put(name, new XmlProperty(name, readString(in)));
+                break;
+            case OP_REMOVE:
+                props.remove(name);
+                break;
+            default:
+                throw new IOException("Unknown dead property record " + op);
+            }
+            put(key, props);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Returns the numbers of the logs in a directory, in ascending order.
+     */
+    private static List<Long> getLogNumbers(FileSystem storeFs, Path storeDir) throws IOException {
+        List<Long> numbers = new ArrayList<Long>();
+        FileStatus[] files = storeFs.listStatus(storeDir);
+        if (files == null) {
+            return numbers;
+        }
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            if (name.startsWith(LOG_PREFIX)) {
+                try {
+                    numbers.add(Long.parseLong(name.substring(LOG_PREFIX.length())));
+                } catch (NumberFormatException ex) {
+                    LOG.warn("Ignoring " + file.getPath());
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private void compactIfWorthwhile() {
+        synchronized (this) {
+            if (logRecords < MIN_COMPACT_RECORDS || logRecords < count) {
+                return;
+            }
+        }
+        try {
+            compact();
+        } catch (IOException ex) {
+            LOG.warn("Compaction of dead properties failed: " + StringUtils.stringifyException(ex));
+        }
+    }
+
+    /**
+     * Starts a new log, then writes the properties alive to a new snapshot
+     * and deletes the older logs. Only the store monitor is held while the
+     * log is switched, changes go on while the snapshot is written. Called
+     * from one thread at a time.
+     */
+    private void compact() throws IOException {
+        Path snapshot = new Path(dir, SNAPSHOT);
+        Path snapshotNew = new Path(dir, SNAPSHOT_NEW);
+        long number;
+        synchronized (this) {
+            number = logNumber + 1;
+            // the current log stays in use if the new one cannot be created
+            FSDataOutputStream next = fs.create(new Path(dir, LOG_PREFIX + number), true);
+            try {
+                next.writeInt(MAGIC);
+                next.sync();
+            } catch (IOException ex) {
+                IOUtils.closeStream(next);
+                throw ex;
+            }
+            IOUtils.closeStream(log);
+            log = next;
+            logNumber = number;
+            logRecords = 0;
+        }
+
+        // the index is read while it changes; every change made since the
+        // switch is in the new log, which is replayed over this snapshot
+        FSDataOutputStream out = fs.create(snapshotNew, true);
+        try {
+            out.writeInt(MAGIC);
+            for (Map.Entry<String, Map<DavPropertyName, DavProperty>> entry : properties.entrySet()) {
+                Batch batch = new Batch();
+                for (DavProperty property : entry.getValue().values()) {
+                    batch.set(entry.getKey(), property);
+                }
+                out.writeInt(batch.buffer.size());
+                batch.buffer.writeTo(out);
+            }
+            out.close();
+            out = null;
+        } finally {
+            IOUtils.closeStream(out);
+        }
+        fs.delete(snapshot, false);
+        if (!fs.rename(snapshotNew, snapshot)) {
+            throw new IOException("Unable to rename " + snapshotNew + " to " + snapshot);
+        }
+        for (long older : getLogNumbers(fs, dir)) {
+            if (older < number) {
+                fs.delete(new Path(dir, LOG_PREFIX + older), false);
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Compacted " + count + " dead properties of " + properties.size() + " paths");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.thread.ThreadPool;
+
+/**
+ * A Jetty thread pool which gives every request a thread of its own as
+ * soon as it is dispatched, instead of queueing it behind the requests
+ * blocked on the NameNode or the datanodes.
+ * <p/>
+ * Threads are created on demand with a small stack and discarded after
+ * being idle for a while, so that thousands of slow requests cost little
+ * more than their stacks. With the select channel connector idle
+ * connections hold no thread at all.
+ */
+public class ElasticThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private static final Log LOG = LogFactory.getLog(ElasticThreadPool.class);
+
+    public static final int DEFAULT_MIN_THREADS = 16;
+    public static final int DEFAULT_MAX_THREADS = 10000;
+    public static final int DEFAULT_MAX_IDLE_TIME = 60 * 1000;
+    public static final long DEFAULT_STACK_SIZE = 256 * 1024L;
+
+    private int minThreads = DEFAULT_MIN_THREADS;
+    private int maxThreads = DEFAULT_MAX_THREADS;
+    private int maxIdleTimeMs = DEFAULT_MAX_IDLE_TIME;
+    private long stackSize = DEFAULT_STACK_SIZE;
+    private String name = "webdav-request";
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Sets the number of threads kept even when idle.
+     */
+    public void setMinThreads(int minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    /**
+     * Sets the number of requests served at once, beyond which connections
+     * wait to be dispatched.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public void setMaxIdleTimeMs(int maxIdleTimeMs) {
+        this.maxIdleTimeMs = maxIdleTimeMs;
+    }
+
+    /**
+     * Sets the stack size of the threads in bytes, 0 for the default of the
+     * JVM. Some platforms ignore it.
+     */
+    public void setStackSize(long stackSize) {
+        this.stackSize = stackSize;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        final ThreadGroup group = new ThreadGroup(name);
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(Math.min(minThreads, maxThreads), maxThreads,
+                                          maxIdleTimeMs, TimeUnit.MILLISECONDS,
+                                          new SynchronousQueue<Runnable>(),
+                                          new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(group, r, name + "-" + count.incrementAndGet(), stackSize);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        LOG.info("Dispatching up to " + maxThreads + " requests at once on "
+                 + (stackSize > 0 ? (stackSize >> 10) + "k" : "default") + " stacks");
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+    }
+
+    public boolean dispatch(Runnable job) {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            return false;
+        }
+        try {
+            current.execute(job);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("No thread left to dispatch " + job);
+            return false;
+        }
+    }
+
+    public void join() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            // running jobs are not interrupted
+        }
+    }
+
+    public int getThreads() {
+        return executor == null ? 0 : executor.getPoolSize();
+    }
+
+    public int getIdleThreads() {
+        return executor == null ? 0 : executor.getPoolSize() - executor.getActiveCount();
+    }
+
+    /**
+     * Tells whether the connector should shed idle connections: less than
+     * a tenth of the threads are left.
+     */
+    public boolean isLowOnThreads() {
+        return executor != null && executor.getActiveCount() >= maxThreads - maxThreads / 10;
+    }
+}
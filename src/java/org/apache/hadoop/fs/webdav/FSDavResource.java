@@ -18,22 +18,28 @@
 
 package org.apache.hadoop.fs.webdav;
 
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Date;
 import java.util.TimeZone;
-import java.text.SimpleDateFormat;
+import java.text.DateFormat;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.AccessControlException;
 import org.apache.hadoop.io.IOUtils;
@@ -45,12 +51,14 @@ import org.apache.jackrabbit.webdav.security.*;
 import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockDiscovery;
 import org.apache.jackrabbit.webdav.lock.LockInfo;
 import org.apache.jackrabbit.webdav.lock.LockManager;
 import org.apache.jackrabbit.webdav.lock.Scope;
-import org.apache.jackrabbit.webdav.lock.SimpleLockManager;
+import org.apache.jackrabbit.webdav.lock.SupportedLock;
 import org.apache.jackrabbit.webdav.lock.Type;
 import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyIterator;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
 import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
@@ -58,7 +66,6 @@ import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.apache.jackrabbit.webdav.property.ResourceType;
 import org.apache.jackrabbit.webdav.simple.ResourceConfig;
 
-import javax.security.auth.login.LoginException;
 import javax.jcr.RepositoryException;
 
 public class FSDavResource implements DavResource {
@@ -66,18 +73,24 @@ public class FSDavResource implements DavResource {
     private static final Log LOG = LogFactory.getLog(FSDavResource.class);
 
     private static final String COMPLIANCE_CLASS = 
-        DavCompliance.concatComplianceClasses(new String[] {DavCompliance._2_});
+        DavCompliance.concatComplianceClasses(new String[] {DavCompliance._1_, DavCompliance._2_});
 
-    //We support compliance level 1, and the listed methods. PROPFIND, PROPPATCH
-    //are not supported for now. 
+    //We support compliance level 1 and exclusive write locks of level 2, and the
+    //listed methods. PROPPATCH only alters dead properties.
     private static final String SUPPORTED_METHODS 
-        = "OPTIONS, GET, HEAD, POST, TRACE, MKCOL, COPY, PUT, DELETE, MOVE, PROPFIND";
+        = "OPTIONS, GET, HEAD, POST, TRACE, MKCOL, COPY, PUT, DELETE, MOVE, PROPFIND, PROPPATCH, LOCK, UNLOCK";
+
+    static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
 
     private FSDavResourceFactory factory;
     private final DavResourceLocator locator;
-    private LockManager lockManager = new SimpleLockManager();
+    private LockManager lockManager;
     private DavSession session;
 
+    /**
+     * The properties computed so far; complete once <code>inited</code> is
+     * set.
+     */
     private DavPropertySet properties = new DavPropertySet();
 
     //hadoop objects
@@ -86,6 +99,12 @@ public class FSDavResource implements DavResource {
     private final Path path; //the path object that this resource represents
     private boolean inited = false;
 
+    /**
+     * The status of this resource, if it is already known. Set when the
+     * resource is built from a directory listing, or on first lookup.
+     */
+    private FileStatus status;
+
     /**
      * This only indicates that the DavResource is to be created as a file 
      * or directory
@@ -98,38 +117,136 @@ public class FSDavResource implements DavResource {
                          DavSession session,
                          ResourceConfig resourceConfig,
                          Configuration conf,
-                         boolean isCollectionRequest) throws IOException {
+                         FileSystem fs,
+                         boolean isCollectionRequest) {
 
         this.factory = factory;
         this.locator = locator;
         this.session = session;
         this.conf = conf;
-        this.fs = FileSystem.get(conf);
+        this.fs = fs;
         String pathStr = URLDecoder.decode(locator.getResourcePath());
         if (pathStr.trim().equals("")) { //empty path is not allowed
             pathStr = "/";
         }
         this.path = new Path(pathStr);
         this.isCollectionRequest = isCollectionRequest;
+        this.lockManager = factory.getLockManager();
     }
 
     public FSDavResource(FSDavResourceFactory factory,
                          DavResourceLocator locator,
                          DavSession session,
                          ResourceConfig resourceConfig,
-                         Configuration conf) throws IOException {
+                         Configuration conf,
+                         FileSystem fs) {
 
-        this(factory, locator,session, resourceConfig, conf, false);
+        this(factory, locator,session, resourceConfig, conf, fs, false);
+    }
+
+    /**
+     * Creates a resource whose status has already been fetched, e.g. by
+     * listing its parent directory, so that no further lookup is needed to
+     * render its properties.
+     */
+    public FSDavResource(FSDavResourceFactory factory,
+                         DavResourceLocator locator,
+                         DavSession session,
+                         ResourceConfig resourceConfig,
+                         Configuration conf,
+                         FileSystem fs,
+                         FileStatus status) {
+
+        this(factory, locator,session, resourceConfig, conf, fs, false);
+        this.status = status;
     }
 
     public String getComplianceClass() {
         return COMPLIANCE_CLASS;
     }
 
-    private Path getPath() {
+    Path getPath() {
         return path;
     }
 
+    /**
+     * Returns the filesystem client this resource is accessed with.
+     */
+    FileSystem getFileSystem() {
+        return fs;
+    }
+
+    private FileStatusCache getStatusCache() {
+        return factory.getStatusCache();
+    }
+
+    /**
+     * Returns the scope of the user of this resource in the metadata cache.
+     */
+    private String getCacheScope() {
+        UnixUserGroupInformation ugi = FSDavSession.getSecurityContext(session).getUgi();
+        return ugi == null ? "" : ugi.toString();
+    }
+
+    /**
+     * Returns the status of this resource, served from the shared metadata
+     * cache whenever possible.
+     */
+    private FileStatus getFileStatus() throws IOException {
+        if (status == null) {
+            if (isProbe()) {
+                throw new FileNotFoundException("File " + path + " does not exist.");
+            }
+            status = getStatusCache().getFileStatus(getCacheScope(), fs, path);
+        }
+        return status;
+    }
+
+    /**
+     * Tells whether this resource has one of the names clients probe for,
+     * which are never looked up.
+     */
+    private boolean isProbe() {
+        return factory.getProbeNames().matches(path);
+    }
+
+    /**
+     * Refuses to create a resource with one of the names clients probe for,
+     * since it would never be found afterwards.
+     */
+    private static void checkNotProbe(FSDavResource resource) throws DavException {
+        if (resource.isProbe()) {
+            throw new DavException(DavServletResponse.SC_FORBIDDEN);
+        }
+    }
+
+    /**
+     * Forgets everything known about the given path, to be called whenever
+     * the gateway modifies it.
+     */
+    private void invalidate(FSDavResource resource) {
+        resource.status = null;
+        getStatusCache().invalidate(resource.getPath());
+    }
+
+    /**
+     * Checks that the session of this request holds the locks needed to
+     * modify a path, and with <code>subtree</code> set, everything below it.
+     */
+    private void checkUnlocked(Path p, boolean subtree) throws DavException {
+        factory.getLockManager().checkUnlocked(p, session, subtree);
+    }
+
+    /**
+     * Checks that a path may be added to, or removed from, its parent
+     * collection.
+     */
+    private void checkParentUnlocked(Path p) throws DavException {
+        if (p.getParent() != null) {
+            checkUnlocked(p.getParent(), false);
+        }
+    }
+
     public void addLockManager(LockManager lockmgr) {
         this.lockManager = lockmgr;
     }
@@ -139,6 +256,13 @@ public class FSDavResource implements DavResource {
         //A PUT performed on an existing resource replaces the GET response entity of the resource. Properties
         //defined on the resource may be recomputed during PUT processing but are not otherwise affected.
         Path destPath = ((FSDavResource)resource).getPath();
+        checkNotProbe((FSDavResource)resource);
+        checkUnlocked(destPath, false);
+        if (!resource.exists()) {
+            checkParentUnlocked(destPath);
+            // left over by changes made behind the gateway
+            factory.getPropertyStore().removeTree(destPath);
+        }
         try {
             FSDavResource dfsResource = (FSDavResource)resource;
             if (dfsResource.isCollectionRequest) {
@@ -156,21 +280,185 @@ public class FSDavResource implements DavResource {
                     }
                 } else {
                     LOG.debug("writing new file : " + destPath.toUri().getPath());
-                    OutputStream out = fs.create(destPath);
+                    factory.getUploadSessions().remove(destPath);
+                    UploadPolicy.Settings settings
+                        = factory.getUploadPolicy().getSettings(fs, destPath, inputContext);
+                    OutputStream out = fs.create(destPath,
+                                                 true,
+                                                 settings.getBufferSize(),
+                                                 settings.getReplication(),
+                                                 settings.getBlockSize());
                     InputStream in = inputContext.getInputStream();
-                    IOUtils.copyBytes(in, out, conf, true);
+                    try {
+                        long copied = factory.getUploadPipeline().copy(in, out, settings.getBufferSize());
+                        out.close();
+                        out = null;
+                        addBytesIn(copied);
+                    } finally {
+                        IOUtils.closeStream(out);
+                        IOUtils.closeStream(in);
+                    }
                 }
             }
+            invalidate(dfsResource);
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static void addBytesIn(long bytes) {
+        WebdavMetrics metrics = WebdavMetrics.getInstance();
+        if (metrics != null) {
+            metrics.addBytesIn(bytes);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of this file committed so far by ranged
+     * PUT requests, 0 if the file does not exist.
+     */
+    long getCommittedLength() throws DavException {
+        long committed = factory.getUploadSessions().getCommitted(path);
+        if (committed >= 0) {
+            return committed;
+        }
+        try {
+            return getFileLength();
         } catch (IOException ex) {
             LOG.warn(StringUtils.stringifyException(ex));
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Returns the length of this file as seen by the namenode, bypassing
+     * the metadata cache, or 0 if it does not exist.
+     */
+    private long getFileLength() throws IOException {
+        try {
+            return fs.getFileStatus(path).getLen();
+        } catch (FileNotFoundException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the content of a ranged PUT to this file. A range starting at 0
+     * (re)creates the file, any other range is appended and must start right
+     * after the bytes already committed. Whatever was received before the
+     * connection dropped stays in the file, so the client can resume from
+     * there.
+     *
+     * @return the number of bytes committed to the file afterwards
+     * @throws DavException with <code>416</code> if the range does not start
+     *         where the committed bytes end
+     */
+    long writeRange(InputContext inputContext, ContentRange range) throws DavException {
+        long length = inputContext.getContentLength();
+        if (length >= 0 && length != range.getLength()) {
+            throw new DavException(DavServletResponse.SC_BAD_REQUEST,
+                                   "Content-Length does not match Content-Range.");
+        }
+        checkNotProbe(this);
+        checkUnlocked(path, false);
+        if (!exists()) {
+            checkParentUnlocked(path);
+            // left over by changes made behind the gateway
+            factory.getPropertyStore().removeTree(path);
+        }
+        UploadSessions sessions = factory.getUploadSessions();
+        UploadSessions.Session session = sessions.acquire(path, range.getTotal());
+        long committed = -1;
+        try {
+            committed = session.getCommitted();
+            if (committed < 0) {
+                committed = getFileLength();
+            }
+            if (range.getFirst() != 0 && range.getFirst() != committed) {
+                throw new DavException(DavServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                                       "Upload of " + path + " continues at " + committed);
+            }
+
+            UploadPolicy.Settings settings
+                = factory.getUploadPolicy().getSettings(fs, path, inputContext);
+            OutputStream out;
+            if (range.getFirst() == 0) {
+                LOG.debug("writing new file : " + path.toUri().getPath());
+                out = fs.create(path,
+                                true,
+                                settings.getBufferSize(),
+                                settings.getReplication(),
+                                settings.getBlockSize());
+            } else {
+                LOG.debug("appending to file : " + path.toUri().getPath() + " at " + committed);
+                try {
+                    out = fs.append(path, settings.getBufferSize());
+                } catch (AccessControlException ex) {
+                    throw ex;
+                } catch (IOException ex) {
+                    LOG.warn(StringUtils.stringifyException(ex));
+                    throw new DavException(DavServletResponse.SC_NOT_IMPLEMENTED,
+                                           "Unable to append to " + path);
+                }
+            }
+            // the body may be chunked, it is held to the announced range
+            InputStream in = new BoundedInputStream(inputContext.getInputStream(), range.getLength());
+            try {
+                long copied = factory.getUploadPipeline().copy(in, out, settings.getBufferSize());
+                addBytesIn(copied);
+                out.close();
+                out = null;
+                if (copied != range.getLength()) {
+                    throw new DavException(DavServletResponse.SC_BAD_REQUEST,
+                                           "Request body shorter than Content-Range.");
+                }
+            } finally {
+                // close even when the client went away, to keep what was received
+                IOUtils.closeStream(out);
+                IOUtils.closeStream(in);
+                invalidate(this);
+                try {
+                    committed = getFileLength();
+                } catch (IOException ex) {
+                    committed = -1;
+                }
+            }
+            return committed;
+        } catch (AccessControlException ex) {
+            throw new DavException(DavServletResponse.SC_FORBIDDEN);
+        } catch (BoundedInputStream.TooLongException ex) {
+            throw new DavException(DavServletResponse.SC_BAD_REQUEST, "Request body longer than Content-Range.");
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            sessions.release(session, committed);
+        }
+    }
+
     public void removeMember(DavResource member) throws DavException {
+        final FSDavResource target = (FSDavResource)member;
+        checkUnlocked(target.getPath(), true);
+        checkParentUnlocked(target.getPath());
+        if (isRespondAsync(DavMethods.METHOD_DELETE)) {
+            throw new JobAcceptedException(submit(DavMethods.METHOD_DELETE, target, null, new JobEngine.Operation() {
+                public void run(JobEngine.Job job) throws DavException {
+                    delete(target);
+                }
+            }));
+        }
+        delete(target);
+    }
+
+    private void delete(FSDavResource member) throws DavException {
+        Path destPath = member.getPath();
         try {
-            Path destPath = ((FSDavResource)member).getPath();
             boolean success = fs.delete(destPath, true);
+            invalidate(member);
+            factory.getUploadSessions().remove(destPath);
+            factory.getLockManager().removeLocks(destPath);
+            factory.getPropertyStore().removeTree(destPath);
             LOG.info("Delete " + destPath.toString() + ": " + success);
             if (!success) {
                 throw new DavException(DavServletResponse.SC_NOT_FOUND);
@@ -181,30 +469,177 @@ public class FSDavResource implements DavResource {
         }
     }
 
-    public void copy(DavResource destination, boolean shallow) throws DavException {
+    /**
+     * Copies this resource through the shared {@link TreeCopier}. A shallow
+     * copy of a collection only creates the destination collection. When
+     * only some members of a collection could be copied, the failures are
+     * reported with a {@link MultiStatusException}.
+     */
+    public void copy(DavResource destination, final boolean shallow) throws DavException {
 
         if (!exists()) {
             throw new DavException(DavServletResponse.SC_NOT_FOUND);
         }
-        if (!shallow || !isCollection()) {
-            FSDavResource dest = (FSDavResource)destination;
-            try {
-                FileUtil.copy(fs, path, fs,dest.getPath(), false, conf);
-            } catch (IOException ex) {
-                LOG.warn(StringUtils.stringifyException(ex));
-                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+        final FSDavResource dest = (FSDavResource)destination;
+        checkNotProbe(dest);
+        checkUnlocked(dest.getPath(), true);
+        checkParentUnlocked(dest.getPath());
+        String srcKey = FileStatusCache.getKey(path);
+        String destKey = FileStatusCache.getKey(dest.getPath());
+        if (destKey.equals(srcKey) || destKey.startsWith(srcKey.endsWith("/") ? srcKey : srcKey + "/")) {
+            throw new DavException(DavServletResponse.SC_FORBIDDEN,
+                                   "Cannot copy a resource into itself.");
+        }
+        if (isRespondAsync(DavMethods.METHOD_COPY)) {
+            throw new JobAcceptedException(submit(DavMethods.METHOD_COPY, this, dest, new JobEngine.Operation() {
+                public void run(JobEngine.Job job) throws DavException {
+                    copyInBackground(dest, shallow, job);
+                }
+            }));
+        }
+
+        TreeCopier copier = factory.getTreeCopier();
+        TreeCopier.Job job;
+        try {
+            job = copier.start(fs, getFileStatus(), dest.getPath(), shallow);
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        try {
+            if (!job.await(copier.getTimeout())) {
+                job.cancel();
+                LOG.warn("Copy of " + path + " to " + dest.getPath() + " timed out");
+                throw new DavException(DavServletResponse.SC_SERVICE_UNAVAILABLE,
+                                       "Copy timed out.");
             }
+        } catch (InterruptedException ex) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR,
+                                   "Copy interrupted.");
+        } finally {
+            invalidate(dest);
+        }
+
+        Map<Path, IOException> failures = job.getFailures();
+        if (!failures.containsKey(dest.getPath())) {
+            factory.getPropertyStore().copy(path, dest.getPath());
+        }
+        if (failures.isEmpty()) {
+            return;
+        }
+        IOException rootFailure = failures.get(dest.getPath());
+        if (rootFailure != null) {
+            throw new DavException(getErrorCode(rootFailure), rootFailure.getMessage());
+        }
+        MultiStatus multiStatus = new MultiStatus();
+        for (Map.Entry<Path, IOException> failure : failures.entrySet()) {
+            multiStatus.addResponse(new MultiStatusResponse(failure.getKey().toUri().getPath(),
+                                                            getErrorCode(failure.getValue())));
+        }
+        throw new MultiStatusException(multiStatus);
+    }
+
+    /**
+     * Copies this resource for a background job, which reports the progress
+     * and the members that could not be copied. Unlike a copy made while
+     * the client waits, it has no time limit.
+     */
+    private void copyInBackground(FSDavResource dest, boolean shallow, JobEngine.Job job) throws DavException {
+        TreeCopier.Job copy;
+        try {
+            copy = factory.getTreeCopier().start(fs, getFileStatus(), dest.getPath(), shallow);
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+            throw new DavException(getErrorCode(ex), ex.getMessage());
+        }
+        job.track(copy);
+        try {
+            copy.await(0);
+        } catch (InterruptedException ex) {
+            copy.cancel();
+            Thread.currentThread().interrupt();
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, "Copy interrupted.");
+        } finally {
+            invalidate(dest);
         }
 
-        // TODO: currently no support for shallow copy; however this is
-        // only relevant if the source resource is a collection, because
-        // otherwise it doesn't make a difference
-        throw new DavException(DavServletResponse.SC_FORBIDDEN, "Unable to perform shallow copy.");
+        Map<Path, IOException> failures = copy.getFailures();
+        if (!failures.containsKey(dest.getPath()) && !job.isCancelled()) {
+            factory.getPropertyStore().copy(path, dest.getPath());
+        }
+        for (Map.Entry<Path, IOException> failure : failures.entrySet()) {
+            job.addFailure(failure.getKey().toUri().getPath(), getErrorCode(failure.getValue()));
+        }
+    }
+
+    /**
+     * Tells whether the client asked for the given method, the one of the
+     * request, to be run in the background, and it can be.
+     */
+    private boolean isRespondAsync(String method) {
+        return factory.getJobEngine() != null && FSDavSession.isRespondAsync(session, method);
+    }
+
+    /**
+     * Hands an operation over to the background job engine. The job holds
+     * its own lease on the client of this resource, so that the client
+     * stays open until the job is over.
+     */
+    private JobEngine.Job submit(String method,
+                                 FSDavResource source,
+                                 FSDavResource destination,
+                                 JobEngine.Operation operation) throws DavException {
+        return factory.getJobEngine().submit(FSDavSession.getSecurityContext(session).getUserName(),
+                                             method,
+                                             source.getHref(),
+                                             destination == null ? null : destination.getHref(),
+                                             operation,
+                                             factory.getLease(session).retain());
+    }
+
+    /**
+     * Maps a filesystem error to the status reported to the client.
+     */
+    private static int getErrorCode(IOException ex) {
+        if (ex instanceof AccessControlException) {
+            return DavServletResponse.SC_FORBIDDEN;
+        }
+        if (ex instanceof FileNotFoundException) {
+            return DavServletResponse.SC_NOT_FOUND;
+        }
+        return DavServletResponse.SC_INTERNAL_SERVER_ERROR;
     }
 
     public void move(DavResource destination) throws DavException {
+        final FSDavResource dest = (FSDavResource)destination;
+        checkNotProbe(dest);
+        checkUnlocked(path, true);
+        checkParentUnlocked(path);
+        checkUnlocked(dest.getPath(), true);
+        checkParentUnlocked(dest.getPath());
+        if (isRespondAsync(DavMethods.METHOD_MOVE)) {
+            throw new JobAcceptedException(submit(DavMethods.METHOD_MOVE, this, dest, new JobEngine.Operation() {
+                public void run(JobEngine.Job job) throws DavException {
+                    moveTo(dest);
+                }
+            }));
+        }
+        moveTo(dest);
+    }
+
+    private void moveTo(FSDavResource dest) throws DavException {
         try {
-            fs.rename(path, ((FSDavResource)destination).getPath());
+            try {
+                fs.rename(path, dest.getPath());
+                // locks stay with the paths they were taken on
+                factory.getLockManager().removeLocks(path);
+                factory.getPropertyStore().move(path, dest.getPath());
+            } finally {
+                invalidate(this);
+                invalidate(dest);
+            }
         } catch (IOException ex) {
             LOG.warn(StringUtils.stringifyException(ex));
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -213,7 +648,10 @@ public class FSDavResource implements DavResource {
 
     public boolean exists() {
         try {
-            return fs.exists(path);
+            getFileStatus();
+            return true;
+        } catch (FileNotFoundException ex) {
+            return false;
         } catch (IOException ex) {
             // a DAV exception cannot be thrown
             LOG.warn(StringUtils.stringifyException(ex));
@@ -228,16 +666,13 @@ public class FSDavResource implements DavResource {
 
         DavResourceLocator newLocator = locator.getFactory().createResourceLocator(locator.getPrefix(),
                                                                                    path.getParent().toUri().getPath());
-        try {
-            return factory.createResource(newLocator, getSession());
-        } catch (DavException ex) {
-            LOG.warn(StringUtils.stringifyException(ex));
-            throw new RuntimeException(ex);
-        }
+        return factory.createResource(newLocator, getSession(), fs);
     }
 
     public String getDisplayName() {
-        LOG.info("DISPLAY_NAME: " + path.getName());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("DISPLAY_NAME: " + path.getName());
+        }
 
         return path.getName();
     }
@@ -260,7 +695,9 @@ public class FSDavResource implements DavResource {
             buffer.insert(0, "/");            
         }
 
-        LOG.info("HREF: " + buffer.toString());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("HREF: " + buffer.toString());
+        }
         return buffer.toString();
     }
 
@@ -273,41 +710,125 @@ public class FSDavResource implements DavResource {
     }
 
     public ActiveLock[] getLocks() {
-        return new ActiveLock[0];
+        ActiveLock lock = getLock(Type.WRITE, Scope.EXCLUSIVE);
+        return lock == null ? new ActiveLock[0] : new ActiveLock[] {lock};
     }
 
     public DavResourceIterator getMembers() {
-        ArrayList<DavResource> list = new ArrayList<DavResource>();
         try {
-            FileStatus[] statuses = fs.listStatus(path);
-            if (statuses != null) {
-                for (FileStatus s:statuses) {
-                    Path p = s.getPath();
-                    LOG.info("MEMBER: " + p.toString());
-                    DavResourceLocator resourceLocator 
-                        = locator.getFactory().createResourceLocator(locator.getPrefix(),
-                                                                     locator.getWorkspacePath(),
-                                                                     p.toString(),
-                                                                     false);
-                    try {
-                        list.add(factory.createResource(resourceLocator, getSession()));
-                    } catch (DavException ex) {
-                        ex.printStackTrace();
-                    }
-                }
-            }
-
+            return getMembers(listMembers());
         } catch (IOException ex) {
             LOG.warn(StringUtils.stringifyException(ex));
             throw new RuntimeException(ex);
         }
-        return new DavResourceIteratorImpl(list);
+    }
+
+    /**
+     * Lists the statuses of the members of this collection. Safe to call
+     * from any thread.
+     */
+    FileStatus[] listMembers() throws IOException {
+        FileStatus[] statuses = fs.listStatus(path);
+        return statuses == null ? new FileStatus[0] : statuses;
+    }
+
+    /**
+     * Returns the members of this collection from a listing made earlier
+     * with {@link #listMembers()}. The iterator clears each element of
+     * <code>statuses</code> once reached, so that the statuses of a large
+     * listing are released as it goes; the array is not to be used after.
+     */
+    DavResourceIterator getMembers(FileStatus[] statuses) {
+        return new MemberIterator(statuses);
+    }
+
+    /**
+     * Iterates over the members of this collection, creating each resource
+     * only when it is reached so that a large listing never holds all of
+     * them at once.
+     */
+    private class MemberIterator implements DavResourceIterator {
+
+        private final FileStatus[] statuses;
+        /** The members hidden as probe names */
+        private final BitSet hidden = new BitSet();
+        /** Whether the files are cached along with the directories */
+        private final boolean cacheFiles;
+        private int index = 0;
+        private DavResource next;
+
+        MemberIterator(FileStatus[] statuses) {
+            this.statuses = statuses;
+            ProbeNames probeNames = factory.getProbeNames();
+            for (int i = 0; i < statuses.length; i++) {
+                if (probeNames.matches(statuses[i].getPath())) {
+                    hidden.set(i);
+                }
+            }
+            this.cacheFiles = getStatusCache().isCacheable(statuses.length);
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            FileStatusCache statusCache = getStatusCache();
+            String scope = getCacheScope();
+            while (next == null && index < statuses.length) {
+                FileStatus s = statuses[index];
+                statuses[index] = null;
+                if (hidden.get(index++)) {
+                    // hidden, as they cannot be looked up
+                    continue;
+                }
+                Path p = s.getPath();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("MEMBER: " + p.toString());
+                }
+                if (cacheFiles || s.isDir()) {
+                    statusCache.put(scope, p, s);
+                }
+                DavResourceLocator resourceLocator 
+                    = locator.getFactory().createResourceLocator(locator.getPrefix(),
+                                                                 locator.getWorkspacePath(),
+                                                                 p.toString(),
+                                                                 false);
+                next = factory.createResource(resourceLocator, getSession(), fs, s);
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Object next() {
+            return nextResource();
+        }
+
+        public DavResource nextResource() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            DavResource resource = next;
+            advance();
+            return resource;
+        }
+
+        public int size() {
+            return statuses.length - hidden.cardinality();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Remove not allowed with FSDavResource members");
+        }
     }
 
     public long getModificationTime() {
         try {
-            LOG.info("MODIFICATION_TIME: " + fs.getFileStatus(path).getModificationTime());
-            return fs.getFileStatus(path).getModificationTime();
+            long modificationTime = getFileStatus().getModificationTime();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("MODIFICATION_TIME: " + modificationTime);
+            }
+            return modificationTime;
         } catch (IOException ex) {
             LOG.warn(StringUtils.stringifyException(ex));
             LOG.info("EXCEPTION: " + StringUtils.stringifyException(ex));
@@ -320,92 +841,242 @@ public class FSDavResource implements DavResource {
     /*---------------------------- Property Methods ---------------------------*/
     /*-------------------------------------------------------------------------*/
 
-    private void initProperties() {
-        if (inited) {
-            return;
+    /**
+     * The live properties of every resource. The privileges of the current
+     * user are only reported to authenticated users.
+     */
+    private static final DavPropertyName[] PROPERTY_NAMES = {
+        DavPropertyName.GETCONTENTLENGTH,
+        DavPropertyName.GETLASTMODIFIED,
+        SecurityConstants.OWNER,
+        SecurityConstants.GROUP,
+        DavPropertyName.DISPLAYNAME,
+        DavPropertyName.RESOURCETYPE,
+        DavPropertyName.ISCOLLECTION,
+        DavPropertyName.SUPPORTEDLOCK,
+        DavPropertyName.LOCKDISCOVERY,
+        SecurityConstants.CURRENT_USER_PRIVILEGE_SET
+    };
+
+    private static final DavPropertyName[] ANONYMOUS_PROPERTY_NAMES
+        = Arrays.copyOf(PROPERTY_NAMES, PROPERTY_NAMES.length - 1);
+
+    /**
+     * Date formats are not thread safe; each request thread keeps its own
+     * instead of cloning one for every resource.
+     */
+    private static final ThreadLocal<DateFormat> MODIFICATION_DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat format = (DateFormat) DavConstants.modificationDateFormat.clone();
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
         }
-        try {
-            FileStatus fstat = fs.getFileStatus(getPath());
-            properties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, fstat.getLen()));
-
-            SimpleDateFormat simpleFormat =  (SimpleDateFormat) DavConstants.modificationDateFormat.clone();
-            simpleFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-            Date date = new Date(fstat.getModificationTime());
-            properties.add(new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, simpleFormat.format(date)));
-
-            properties.add(new DefaultDavProperty(SecurityConstants.OWNER, fstat.getOwner()));
-            properties.add(new DefaultDavProperty(SecurityConstants.GROUP, fstat.getGroup()));
-
-            UnixUserGroupInformation ugi = UnixUserGroupInformation.readFromConf(this.conf,
-                                                                                 UnixUserGroupInformation.UGI_PROPERTY_NAME);
-            CurrentUserPrivilegeSetProperty currentUserPrivilegeSetProperty = UtilsHelper.getCurrentUserPrivilegeSetProperty(fstat, ugi);
-            properties.add(new DefaultDavProperty(SecurityConstants.CURRENT_USER_PRIVILEGE_SET,
-                                                  currentUserPrivilegeSetProperty.getValue()));
-        } catch (IOException ex) {
-            LOG.warn(StringUtils.stringifyException(ex));
-        } catch (LoginException e) {
-            LOG.warn(StringUtils.stringifyException(e));
+    };
+
+    /**
+     * Computes a single live property, doing only the work it needs: the
+     * display name costs nothing, the others a lookup of the status, which
+     * is shared by all the properties of the resource.
+     *
+     * @return the property, or null if this resource does not have it
+     */
+    private DavProperty computeProperty(DavPropertyName name) {
+        if (DavPropertyName.DISPLAYNAME.equals(name)) {
+            String displayName = getDisplayName();
+            return displayName == null ? null : new DefaultDavProperty(name, displayName);
         }
-        // set (or reset) fundamental properties
-        if (getDisplayName() != null) {
-            properties.add(new DefaultDavProperty(DavPropertyName.DISPLAYNAME, getDisplayName()));
+        if (DavPropertyName.RESOURCETYPE.equals(name)) {
+            return new ResourceType(isCollection() ? ResourceType.COLLECTION : ResourceType.DEFAULT_RESOURCE);
         }
-        if (isCollection()) {
-            properties.add(new ResourceType(ResourceType.COLLECTION));
-            // Windows XP support
-            properties.add(new DefaultDavProperty(DavPropertyName.ISCOLLECTION, "1"));
-        } else {
-            properties.add(new ResourceType(ResourceType.DEFAULT_RESOURCE));
+        if (DavPropertyName.ISCOLLECTION.equals(name)) {
             // Windows XP support
-            properties.add(new DefaultDavProperty(DavPropertyName.ISCOLLECTION, "0"));
+            return new DefaultDavProperty(name, isCollection() ? "1" : "0");
         }
+        if (DavPropertyName.SUPPORTEDLOCK.equals(name)) {
+            SupportedLock supportedLock = new SupportedLock();
+            supportedLock.addEntry(Type.WRITE, Scope.EXCLUSIVE);
+            return supportedLock;
+        }
+        if (DavPropertyName.LOCKDISCOVERY.equals(name)) {
+            return new LockDiscovery(getLocks());
+        }
+        try {
+            if (DavPropertyName.GETCONTENTLENGTH.equals(name)) {
+                return new DefaultDavProperty(name, getFileStatus().getLen());
+            }
+            if (DavPropertyName.GETLASTMODIFIED.equals(name)) {
+                Date date = new Date(getFileStatus().getModificationTime());
+                return new DefaultDavProperty(name, MODIFICATION_DATE_FORMAT.get().format(date));
+            }
+            if (SecurityConstants.OWNER.equals(name)) {
+                return new DefaultDavProperty(name, getFileStatus().getOwner());
+            }
+            if (SecurityConstants.GROUP.equals(name)) {
+                return new DefaultDavProperty(name, getFileStatus().getGroup());
+            }
+            if (SecurityConstants.CURRENT_USER_PRIVILEGE_SET.equals(name)) {
+                UnixUserGroupInformation ugi = FSDavSession.getSecurityContext(session).getUgi();
+                if (ugi == null) {
+                    return null;
+                }
+                CurrentUserPrivilegeSetProperty currentUserPrivilegeSetProperty
+                    = UtilsHelper.getCurrentUserPrivilegeSetProperty(getFileStatus(), ugi);
+                return new DefaultDavProperty(name, currentUserPrivilegeSetProperty.getValue());
+            }
+        } catch (FileNotFoundException ex) {
+            return null;
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+        }
+        return null;
+    }
 
-        //curtently no locking
-        /* set current lock information. If no lock is set to this resource,
-           an empty lockdiscovery will be returned in the response. */
-        //properties.add(new LockDiscovery(getLock(Type.WRITE, Scope.EXCLUSIVE)));
-
-        /* lock support information: all locks are lockable. */
-        //SupportedLock supportedLock = new SupportedLock();
-        //supportedLock.addEntry(Type.WRITE, Scope.EXCLUSIVE);
-        //properties.add(supportedLock);
-
-        inited = true;
+    private static boolean isLiveProperty(DavPropertyName name) {
+        for (DavPropertyName live : PROPERTY_NAMES) {
+            if (live.equals(name)) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    /**
+     * Returns the dead properties of this resource, set with PROPPATCH.
+     */
+    private Map<DavPropertyName, DavProperty> getDeadProperties() {
+        return factory.getPropertyStore().get(path);
+    }
 
     public DavPropertySet getProperties() {
-        initProperties();
+        if (!inited) {
+            for (DavPropertyName name : getPropertyNames()) {
+                getProperty(name);
+            }
+            inited = true;
+        }
         return properties;
     }
 
     public DavProperty getProperty(DavPropertyName name) {
-        initProperties();
-        return properties.get(name);
+        DavProperty property = properties.get(name);
+        if (property == null && !inited) {
+            property = isLiveProperty(name) ? computeProperty(name) : getDeadProperties().get(name);
+            if (property != null) {
+                properties.add(property);
+            }
+        }
+        return property;
     }
 
     public DavPropertyName[] getPropertyNames() {
-        initProperties();
-        return properties.getPropertyNames();
+        DavPropertyName[] names = FSDavSession.getSecurityContext(session).getUgi() == null
+            ? ANONYMOUS_PROPERTY_NAMES : PROPERTY_NAMES;
+        Map<DavPropertyName, DavProperty> dead = getDeadProperties();
+        if (dead.isEmpty()) {
+            return names.clone();
+        }
+        DavPropertyName[] all = Arrays.copyOf(names, names.length + dead.size());
+        int i = names.length;
+        for (DavPropertyName name : dead.keySet()) {
+            all[i++] = name;
+        }
+        return all;
     }
 
     public void removeProperty(DavPropertyName propertyName) throws DavException {
-        initProperties();
-        properties.remove(propertyName);
+        List<Object> changeList = new ArrayList<Object>();
+        changeList.add(propertyName);
+        alterProperties(changeList);
     }
 
     public void setProperty(DavProperty property) throws DavException {
-        initProperties();
+        List<Object> changeList = new ArrayList<Object>();
+        changeList.add(property);
+        alterProperties(changeList);
     }
 
+    /**
+     * Sets and removes dead properties, all or none of them. Live properties
+     * are protected; a change list touching one of them is refused as a
+     * whole, as PROPPATCH requires.
+     */
     public MultiStatusResponse alterProperties(List changeList) throws DavException {
-        return null;
+        if (!exists()) {
+            throw new DavException(DavServletResponse.SC_NOT_FOUND);
+        }
+        checkUnlocked(path, false);
+        checkWritable();
+
+        List<DavProperty> set = new ArrayList<DavProperty>();
+        List<DavPropertyName> remove = new ArrayList<DavPropertyName>();
+        boolean valid = true;
+        for (Object change : changeList) {
+            DavPropertyName name;
+            if (change instanceof DavProperty) {
+                set.add((DavProperty) change);
+                name = ((DavProperty) change).getName();
+            } else {
+                remove.add((DavPropertyName) change);
+                name = (DavPropertyName) change;
+            }
+            valid &= !isLiveProperty(name);
+        }
+
+        MultiStatusResponse response = new MultiStatusResponse(getHref(), null);
+        if (valid) {
+            try {
+                factory.getPropertyStore().update(path, set, remove);
+            } catch (IOException ex) {
+                LOG.warn(StringUtils.stringifyException(ex));
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            properties = new DavPropertySet();
+            inited = false;
+        }
+        for (Object change : changeList) {
+            DavPropertyName name = change instanceof DavProperty
+                ? ((DavProperty) change).getName() : (DavPropertyName) change;
+            int status = DavServletResponse.SC_OK;
+            if (!valid) {
+                status = isLiveProperty(name) ? DavServletResponse.SC_FORBIDDEN : DavServletResponse.SC_FAILED_DEPENDENCY;
+            }
+            response.add(name, status);
+        }
+        return response;
+    }
+
+    /**
+     * Checks that the user of the session may write this resource. Dead
+     * properties are kept by the gateway, out of reach of the HDFS
+     * permissions, so they are checked here against the status of the
+     * resource. Anonymous requests, which run as the gateway itself, may
+     * not change properties at all.
+     */
+    private void checkWritable() throws DavException {
+        UnixUserGroupInformation ugi = FSDavSession.getSecurityContext(session).getUgi();
+        if (ugi == null) {
+            throw new DavException(DavServletResponse.SC_FORBIDDEN, "Anonymous users cannot change properties.");
+        }
+        try {
+            if (!UtilsHelper.canWrite(getFileStatus(), ugi)) {
+                throw new DavException(DavServletResponse.SC_FORBIDDEN, "Permission denied.");
+            }
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+            throw new DavException(getErrorCode(ex), ex.getMessage());
+        }
     }
 
     @Deprecated
     public MultiStatusResponse alterProperties(DavPropertySet setProperties,
                                                DavPropertyNameSet removePropertyNames) throws DavException {
-        return null;
+        List<Object> changeList = new ArrayList<Object>();
+        changeList.addAll(removePropertyNames.getContent());
+        for (DavPropertyIterator it = setProperties.iterator(); it.hasNext();) {
+            changeList.add(it.nextProperty());
+        }
+        return alterProperties(changeList);
     }
 
     //end of property methods
@@ -423,26 +1094,52 @@ public class FSDavResource implements DavResource {
     }
 
     public boolean hasLock(Type type, Scope scope) {
-        return false;
+        return getLock(type, scope) != null;
     }
 
     public boolean isCollection() {
         try {
-            return fs.getFileStatus(path).isDir();
+            return getFileStatus().isDir();
         } catch (Exception ex) {
             return false;
         }
     }
 
     public boolean isLockable(Type type, Scope scope) {
-        return false;
+        return Type.WRITE.equals(type) && Scope.EXCLUSIVE.equals(scope);
     }
 
+    /**
+     * Locks this resource. Locking a path that does not exist creates an
+     * empty file there, as clients do before writing a new document.
+     */
     public ActiveLock lock(LockInfo reqLockInfo) throws DavException {
+        if (!isLockable(reqLockInfo.getType(), reqLockInfo.getScope())) {
+            throw new DavException(DavServletResponse.SC_PRECONDITION_FAILED,
+                                   "Unsupported lock type or scope.");
+        }
+        if (!exists()) {
+            checkNotProbe(this);
+            checkParentUnlocked(path);
+            try {
+                if (path.getParent() != null && !fs.exists(path.getParent())) {
+                    throw new DavException(DavServletResponse.SC_CONFLICT);
+                }
+                fs.createNewFile(path);
+            } catch (AccessControlException ex) {
+                throw new DavException(DavServletResponse.SC_FORBIDDEN);
+            } catch (IOException ex) {
+                LOG.warn(StringUtils.stringifyException(ex));
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } finally {
+                invalidate(this);
+            }
+        }
         return lockManager.createLock(reqLockInfo, this);
     }
 
     public void unlock(String lockToken) throws DavException {
+        lockManager.releaseLock(lockToken, this);
     }
 
     public ActiveLock refreshLock(LockInfo reqLockInfo, String lockToken) throws DavException {
@@ -451,6 +1148,23 @@ public class FSDavResource implements DavResource {
 
     public void spool(OutputContext outputContext) throws IOException {
         if (!isCollection()) {
+            FileStatus fstat = getFileStatus();
+            // OutputContext.setContentLength() cannot handle files over 2GB
+            outputContext.setProperty(DavConstants.HEADER_CONTENT_LENGTH, String.valueOf(fstat.getLen()));
+            outputContext.setModificationTime(fstat.getModificationTime());
+            outputContext.setProperty(HEADER_ACCEPT_RANGES, "bytes");
+            if (!outputContext.hasStream()) {
+                return;
+            }
+            ZeroCopySpooler zeroCopy = factory.getZeroCopySpooler();
+            if (zeroCopy != null && zeroCopy.spool(fs, path, 0, fstat.getLen(), outputContext.getOutputStream())) {
+                return;
+            }
+            ReadAheadSpooler readAhead = factory.getReadAheadSpooler();
+            if (readAhead != null && readAhead.isWorthwhile(fstat.getLen())) {
+                spool(outputContext.getOutputStream(), 0, fstat.getLen());
+                return;
+            }
             InputStream input = fs.open(path);
             try {
                 IOUtils.copyBytes(input, outputContext.getOutputStream(), conf, false);
@@ -460,4 +1174,78 @@ public class FSDavResource implements DavResource {
         }
     }
 
+    /**
+     * Returns the length of this resource in bytes.
+     */
+    long getContentLength() throws IOException {
+        return getFileStatus().getLen();
+    }
+
+    /**
+     * Sends <code>length</code> bytes of this resource, starting at
+     * <code>offset</code>, as the whole body of the response. Local files
+     * are sent without being copied when possible.
+     */
+    void spoolBody(OutputStream out, long offset, long length) throws IOException {
+        ZeroCopySpooler zeroCopy = factory.getZeroCopySpooler();
+        if (zeroCopy == null || !zeroCopy.spool(fs, path, offset, length, out)) {
+            spool(out, offset, length);
+        }
+    }
+
+    /**
+     * Writes <code>length</code> bytes of this resource, starting at
+     * <code>offset</code>, to the given stream. Short ranges are fetched with
+     * a single positioned read, longer ones by seeking to the offset and
+     * streaming from there, or through the read-ahead engine if it is
+     * enabled, so that only the requested part of the file is read from the
+     * datanodes.
+     */
+    void spool(OutputStream out, long offset, long length) throws IOException {
+        FSDataInputStream input = open();
+        try {
+            spool(input, out, offset, length);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Opens this resource for reading, to send several ranges of it with
+     * {@link #spool(FSDataInputStream, OutputStream, long, long)}.
+     */
+    FSDataInputStream open() throws IOException {
+        return fs.open(path, conf.getInt("io.file.buffer.size", 4096));
+    }
+
+    /**
+     * Writes <code>length</code> bytes of this resource, starting at
+     * <code>offset</code>, from a stream opened with {@link #open()}.
+     */
+    void spool(FSDataInputStream input, OutputStream out, long offset, long length) throws IOException {
+        int bufferSize = conf.getInt("io.file.buffer.size", 4096);
+        ReadAheadSpooler readAhead = factory.getReadAheadSpooler();
+        if (readAhead != null && readAhead.isWorthwhile(length)) {
+            readAhead.copy(input, getFileStatus().getBlockSize(), offset, length, out);
+            return;
+        }
+        if (length <= bufferSize) {
+            byte[] buf = new byte[(int) length];
+            input.readFully(offset, buf, 0, buf.length);
+            out.write(buf);
+            return;
+        }
+        input.seek(offset);
+        byte[] buf = new byte[bufferSize];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = input.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Unexpected end of " + path + " at " + (offset + length - remaining));
+            }
+            out.write(buf, 0, n);
+            remaining -= n;
+        }
+    }
+
 }
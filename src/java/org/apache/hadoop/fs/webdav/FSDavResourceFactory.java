@@ -23,7 +23,9 @@ import java.io.IOException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.security.UnixUserGroupInformation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.util.StringUtils;
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavMethods;
 import org.apache.jackrabbit.webdav.DavResource;
@@ -40,37 +42,184 @@ public class FSDavResourceFactory implements DavResourceFactory {
 
     private final ResourceConfig resourceConfig;
     private final Configuration conf;
+    private final FileStatusCache statusCache;
+    private final ProbeNames probeNames;
+    private final ReadAheadSpooler readAheadSpooler;
+    private final ZeroCopySpooler zeroCopySpooler;
+    private final UploadPolicy uploadPolicy;
+    private final UploadPipeline uploadPipeline;
+    private final UploadSessions uploadSessions;
+    private final TreeCopier treeCopier;
+    private final TreeWalker treeWalker;
+    private final JobEngine jobEngine;
+    private final FileSystemPool fileSystemPool;
+    private final StripedLockManager lockManager;
+    private final DeadPropertyStore propertyStore;
 
     public FSDavResourceFactory(ResourceConfig resourceConfig,
                                 Configuration conf) {
         this.resourceConfig = resourceConfig;
         this.conf = conf;
+        this.statusCache = new FileStatusCache(conf);
+        this.probeNames = new ProbeNames(conf);
+        this.readAheadSpooler = ReadAheadSpooler.isEnabled(conf) ? new ReadAheadSpooler(conf) : null;
+        this.zeroCopySpooler = ZeroCopySpooler.isEnabled(conf) ? new ZeroCopySpooler(conf) : null;
+        this.uploadPolicy = new UploadPolicy(conf);
+        this.uploadPipeline = new UploadPipeline(conf);
+        this.uploadSessions = new UploadSessions(conf);
+        this.treeCopier = new TreeCopier(conf);
+        this.treeWalker = new TreeWalker(conf);
+        this.jobEngine = JobEngine.isEnabled(conf) ? new JobEngine(conf) : null;
+        this.fileSystemPool = new FileSystemPool(conf);
+        this.lockManager = new StripedLockManager(conf);
+        this.propertyStore = new DeadPropertyStore(conf);
     }
 
-    public DavResource createResource(DavResourceLocator locator,
-                                      DavSession session) throws DavException {
+    /**
+     * Returns the metadata cache shared by all the resources of this factory.
+     */
+    FileStatusCache getStatusCache() {
+        return statusCache;
+    }
+
+    /**
+     * Returns the names of the files clients probe for, which never exist.
+     */
+    ProbeNames getProbeNames() {
+        return probeNames;
+    }
+
+    /**
+     * Returns the read-ahead engine used for large downloads, or
+     * <code>null</code> if read-ahead is disabled.
+     */
+    ReadAheadSpooler getReadAheadSpooler() {
+        return readAheadSpooler;
+    }
+
+    /**
+     * Returns the engine sending local files without copying them, or
+     * <code>null</code> if it is disabled.
+     */
+    ZeroCopySpooler getZeroCopySpooler() {
+        return zeroCopySpooler;
+    }
+
+    UploadPolicy getUploadPolicy() {
+        return uploadPolicy;
+    }
+
+    UploadPipeline getUploadPipeline() {
+        return uploadPipeline;
+    }
+
+    UploadSessions getUploadSessions() {
+        return uploadSessions;
+    }
+
+    TreeCopier getTreeCopier() {
+        return treeCopier;
+    }
+
+    /**
+     * Returns the engine running operations in the background, or
+     * <code>null</code> if it is disabled.
+     */
+    JobEngine getJobEngine() {
+        return jobEngine;
+    }
+
+    /**
+     * Returns the walker of <code>Depth: infinity</code> PROPFIND requests.
+     */
+    TreeWalker getTreeWalker() {
+        return treeWalker;
+    }
+
+    /**
+     * Returns the lock manager shared by all the resources of this factory.
+     */
+    StripedLockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * Returns the dead properties of all the resources of this factory.
+     */
+    DeadPropertyStore getPropertyStore() {
+        return propertyStore;
+    }
 
+    /**
+     * Returns the pool of per-user filesystem clients.
+     */
+    FileSystemPool getFileSystemPool() {
+        return fileSystemPool;
+    }
+
+    /**
+     * Returns a lease on the filesystem client of the user the given session
+     * belongs to, held by the session until the end of the request.
+     */
+    FileSystemPool.Lease getLease(DavSession session) throws DavException {
+        if (!(session instanceof FSDavSession)) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, "No session.");
+        }
         try {
-            return new FSDavResource(this, locator, session, resourceConfig, conf);
+            return ((FSDavSession) session).getLease(fileSystemPool);
         } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex.getMessage());
         }
     }
 
+    /**
+     * Returns the filesystem client of the user the given session belongs
+     * to.
+     */
+    private FileSystem getFileSystem(DavSession session) throws DavException {
+        return getLease(session).getFileSystem();
+    }
+
+    public DavResource createResource(DavResourceLocator locator,
+                                      DavSession session) throws DavException {
+
+        return createResource(locator, session, getFileSystem(session));
+    }
+
+    /**
+     * Creates a resource accessed with the given client, typically the one
+     * of the resource it is related to.
+     */
+    DavResource createResource(DavResourceLocator locator,
+                               DavSession session,
+                               FileSystem fs) {
+
+        return new FSDavResource(this, locator, session, resourceConfig, conf, fs);
+    }
+
+    /**
+     * Creates a resource for a path whose status is already known, typically
+     * a member returned by listing its parent directory.
+     */
+    DavResource createResource(DavResourceLocator locator,
+                               DavSession session,
+                               FileSystem fs,
+                               FileStatus status) {
+
+        return new FSDavResource(this, locator, session, resourceConfig, conf, fs, status);
+    }
+
     public DavResource createResource(DavResourceLocator locator,
                                       DavServletRequest request,
                                       DavServletResponse response) throws DavException {
 
-        try {
-            return new FSDavResource(this,
-                                     locator,
-                                     request.getDavSession(),
-                                     resourceConfig,
-                                     conf,
-                                     DavMethods.isCreateCollectionRequest(request));
-        } catch (IOException ex) {
-            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR,
-                                   ex.getMessage());
-        }
+        return new FSDavResource(this,
+                                 locator,
+                                 request.getDavSession(),
+                                 resourceConfig,
+                                 conf,
+                                 getFileSystem(request.getDavSession()),
+                                 DavMethods.isCreateCollectionRequest(request));
     }
 }
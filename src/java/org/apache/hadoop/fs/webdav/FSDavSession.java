@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.jackrabbit.webdav.DavSession;
+
+/**
+ * The session of a single request, carrying its {@link SecurityContext} to
+ * the resource factory and to every resource of the request.
+ */
+public class FSDavSession implements DavSession {
+
+    private final SecurityContext securityContext;
+    private final Set<String> lockTokens = new HashSet<String>();
+    private String asyncMethod;
+    private FileSystemPool.Lease lease;
+
+    public FSDavSession(SecurityContext securityContext) {
+        this.securityContext = securityContext;
+    }
+
+    public SecurityContext getSecurityContext() {
+        return securityContext;
+    }
+
+    /**
+     * Returns the security context of the given session, anonymous if it
+     * carries none.
+     */
+    public static SecurityContext getSecurityContext(DavSession session) {
+        if (session instanceof FSDavSession) {
+            return ((FSDavSession) session).getSecurityContext();
+        }
+        return SecurityContext.ANONYMOUS;
+    }
+
+    /**
+     * Returns the method of the request if its client would rather have it
+     * run in the background, null otherwise.
+     */
+    public String getAsyncMethod() {
+        return asyncMethod;
+    }
+
+    public void setAsyncMethod(String asyncMethod) {
+        this.asyncMethod = asyncMethod;
+    }
+
+    /**
+     * Tells whether the client of the given session would rather have the
+     * given method, the one of its request, run in the background. The
+     * operations a request makes on the side, such as the deletion of the
+     * destination of an overwriting COPY, do not qualify.
+     */
+    public static boolean isRespondAsync(DavSession session, String method) {
+        return session instanceof FSDavSession && method.equals(((FSDavSession) session).getAsyncMethod());
+    }
+
+    /**
+     * Returns the lease on the client of the user, taken from the given
+     * pool on first use and held until the session is released.
+     */
+    public synchronized FileSystemPool.Lease getLease(FileSystemPool pool) throws IOException {
+        if (lease == null) {
+            lease = pool.acquire(securityContext.getUgi());
+        }
+        return lease;
+    }
+
+    /**
+     * Gives back what the session holds, once the request is answered.
+     */
+    public synchronized void release() {
+        if (lease != null) {
+            lease.release();
+            lease = null;
+        }
+    }
+
+    public void addReference(Object reference) {
+    }
+
+    public void removeReference(Object reference) {
+    }
+
+    public synchronized void addLockToken(String token) {
+        lockTokens.add(token);
+    }
+
+    public synchronized String[] getLockTokens() {
+        return lockTokens.toArray(new String[lockTokens.size()]);
+    }
+
+    public synchronized void removeLockToken(String token) {
+        lockTokens.remove(token);
+    }
+}
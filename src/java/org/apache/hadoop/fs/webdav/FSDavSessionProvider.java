@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.Iterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavSessionProvider;
+import org.apache.jackrabbit.webdav.WebdavRequest;
+import org.apache.jackrabbit.webdav.header.IfHeader;
+
+/**
+ * Attaches to every request a {@link FSDavSession} holding the identity of
+ * the authenticated user, with the roles found in the user realm.
+ */
+public class FSDavSessionProvider implements DavSessionProvider {
+
+    private static final Log LOG = LogFactory.getLog(FSDavSessionProvider.class);
+
+    /**
+     * Request header in which clients ask for long operations to run in
+     * the background, see RFC 7240.
+     */
+    private static final String HEADER_PREFER = "Prefer";
+    private static final String PREFER_RESPOND_ASYNC = "respond-async";
+
+    private final WebdavHashUserRealm userRealm;
+
+    /**
+     * @param userRealm the realm providing the user roles, or null if users
+     *        have no roles
+     */
+    public FSDavSessionProvider(WebdavHashUserRealm userRealm) {
+        this.userRealm = userRealm;
+    }
+
+    public boolean attachSession(WebdavRequest request) throws DavException {
+        String userName = request.getRemoteUser();
+        SecurityContext context;
+        if (userName == null) {
+            context = SecurityContext.ANONYMOUS;
+        } else {
+            context = userRealm == null
+                ? new SecurityContext(userName, null)
+                : userRealm.getSecurityContext(userName);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Identity: " + context);
+        }
+        FSDavSession session = new FSDavSession(context);
+        addLockTokens(request, session);
+        // jobs are only visible to their user, anonymous clients have none
+        String prefer = request.getHeader(HEADER_PREFER);
+        if (userName != null && prefer != null && prefer.indexOf(PREFER_RESPOND_ASYNC) >= 0) {
+            session.setAsyncMethod(request.getMethod());
+        }
+        request.setDavSession(session);
+        return true;
+    }
+
+    /**
+     * Adds to the session the lock tokens submitted with the request, in the
+     * <code>If</code> header or, for UNLOCK, the <code>Lock-Token</code>
+     * header.
+     */
+    private static void addLockTokens(WebdavRequest request, FSDavSession session) {
+        if (request.getHeader(DavConstants.HEADER_IF) != null) {
+            Iterator tokens = new IfHeader(request).getAllTokens();
+            while (tokens.hasNext()) {
+                session.addLockToken((String) tokens.next());
+            }
+        }
+        String lockToken = request.getLockToken();
+        if (lockToken != null) {
+            session.addLockToken(lockToken);
+        }
+    }
+
+    public void releaseSession(WebdavRequest request) {
+        if (request.getDavSession() instanceof FSDavSession) {
+            ((FSDavSession) request.getDavSession()).release();
+        }
+        request.setDavSession(null);
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A bounded cache of {@link FileStatus} objects keyed by user and path,
+ * shared by all the resources created by one {@link FSDavResourceFactory}.
+ * Each user only sees the statuses fetched with its own identity, since
+ * the NameNode may refuse to another user what it granted to the first.
+ * Entries expire after a fixed time to live, and the least recently used
+ * entry is evicted once the cache is full. The gateway invalidates the
+ * affected paths itself whenever it modifies the namespace; changes made by
+ * other HDFS clients become visible once the entry expires.
+ * <p/>
+ * Paths found missing are remembered apart, in a cache of their own, so
+ * that clients probing for files which never exist do not evict the
+ * statuses of those which do.
+ * <p/>
+ * The keys are also kept sorted, path first, so that the entries of a tree
+ * are found as a range when it is invalidated.
+ */
+public class FileStatusCache {
+
+    /**
+     * Maximum number of entries kept in the cache, 0 disables caching.
+     */
+    public static final String CACHE_SIZE_KEY = "hadoop.webdav.statcache.size";
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * Time to live of a cache entry, in milliseconds.
+     */
+    public static final String CACHE_TTL_KEY = "hadoop.webdav.statcache.ttl";
+    public static final long DEFAULT_CACHE_TTL = 3000;
+
+    /**
+     * Maximum number of missing paths kept in the cache, 0 disables it.
+     */
+    public static final String NEGATIVE_CACHE_SIZE_KEY = "hadoop.webdav.statcache.negative.size";
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 10000;
+
+    /**
+     * Time to live of a missing path, in milliseconds.
+     */
+    public static final String NEGATIVE_CACHE_TTL_KEY = "hadoop.webdav.statcache.negative.ttl";
+    public static final long DEFAULT_NEGATIVE_CACHE_TTL = 5000;
+
+    /**
+     * Separates the path from the user in the keys of the entries. It sorts
+     * before '/', so the keys of a path come right before those below it.
+     */
+    private static final char SCOPE_SEPARATOR = '\0';
+
+    private final int maxSize;
+    private final long ttl;
+    private final Table<Entry> entries;
+
+    private final int maxMissing;
+    private final long missingTtl;
+    /** The expiration times of the missing paths */
+    private final Table<Long> missing;
+
+    /**
+     * A map evicting its least recently used entry once full, whose keys are
+     * also kept sorted. Not synchronized.
+     */
+    private static class Table<V> {
+        final LinkedHashMap<String, V> map;
+        final TreeSet<String> keys = new TreeSet<String>();
+
+        Table(final int maxSize) {
+            this.map = new LinkedHashMap<String, V>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                    if (size() > maxSize) {
+                        keys.remove(eldest.getKey());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        V get(String key) {
+            return map.get(key);
+        }
+
+        void put(String key, V value) {
+            keys.add(key);
+            map.put(key, value);
+        }
+
+        void remove(String key) {
+            if (map.remove(key) != null) {
+                keys.remove(key);
+            }
+        }
+
+        /**
+         * Removes the entries of a path, for all the users.
+         */
+        void removePath(String path) {
+            removeRange(path + SCOPE_SEPARATOR, path + (char) (SCOPE_SEPARATOR + 1));
+        }
+
+        /**
+         * Removes the entries of the paths strictly below a path.
+         */
+        void removeBelow(String path) {
+            String prefix = path.equals("/") ? "" : path;
+            // '0' follows '/', the range holds exactly the paths below path
+            removeRange(prefix + "/", prefix + "0");
+        }
+
+        private void removeRange(String from, String to) {
+            for (String key : new ArrayList<String>(keys.subSet(from, to))) {
+                map.remove(key);
+                keys.remove(key);
+            }
+        }
+
+        void clear() {
+            map.clear();
+            keys.clear();
+        }
+    }
+
+    private static class Entry {
+        final FileStatus status;
+        final long expires;
+
+        Entry(FileStatus status, long expires) {
+            this.status = status;
+            this.expires = expires;
+        }
+    }
+
+    public FileStatusCache(Configuration conf) {
+        this(conf.getInt(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE),
+             conf.getLong(CACHE_TTL_KEY, DEFAULT_CACHE_TTL),
+             conf.getInt(NEGATIVE_CACHE_SIZE_KEY, DEFAULT_NEGATIVE_CACHE_SIZE),
+             conf.getLong(NEGATIVE_CACHE_TTL_KEY, DEFAULT_NEGATIVE_CACHE_TTL));
+    }
+
+    public FileStatusCache(int maxSize, long ttl) {
+        this(maxSize, ttl, 0, 0);
+    }
+
+    public FileStatusCache(int maxSize, long ttl, int maxMissing, long missingTtl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new Table<Entry>(maxSize);
+        this.maxMissing = maxMissing;
+        this.missingTtl = missingTtl;
+        this.missing = new Table<Long>(maxMissing);
+    }
+
+    private boolean isEnabled() {
+        return maxSize > 0 && ttl > 0;
+    }
+
+    private boolean isNegativeEnabled() {
+        return maxMissing > 0 && missingTtl > 0;
+    }
+
+    /**
+     * Tells whether all the members of a listing of the given size are
+     * worth caching. Past a quarter of the cache they would evict the
+     * statuses of everyone else, only the directories should be cached.
+     */
+    public boolean isCacheable(int members) {
+        return members <= maxSize / 4;
+    }
+
+    /**
+     * Returns the key used for the given path. Paths built from a request
+     * are unqualified while paths returned by the filesystem carry a scheme
+     * and authority, only the path component is used so both map to the same
+     * entry.
+     */
+    static String getKey(Path path) {
+        String key = path.toUri().getPath();
+        if (key.length() > 1 && key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key of the entry of the given path for the given user.
+     */
+    private static String getKey(String scope, Path path) {
+        return getKey(path) + SCOPE_SEPARATOR + scope;
+    }
+
+    /**
+     * Returns the cached status of the given path, or <code>null</code> if it
+     * is not cached or has expired.
+     *
+     * @param scope the user the status is fetched for
+     */
+    public FileStatus get(String scope, Path path) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = getKey(scope, path);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.status;
+        }
+    }
+
+    public void put(String scope, Path path, FileStatus status) {
+        if (status != null && isNegativeEnabled()) {
+            synchronized (missing) {
+                missing.remove(getKey(scope, path));
+            }
+        }
+        if (!isEnabled() || status == null) {
+            return;
+        }
+        Entry entry = new Entry(status, System.currentTimeMillis() + ttl);
+        synchronized (entries) {
+            entries.put(getKey(scope, path), entry);
+        }
+    }
+
+    /**
+     * Tells whether the given path was recently found missing by the given
+     * user.
+     */
+    public boolean isMissing(String scope, Path path) {
+        if (!isNegativeEnabled()) {
+            return false;
+        }
+        String key = getKey(scope, path);
+        synchronized (missing) {
+            Long expires = missing.get(key);
+            if (expires == null) {
+                return false;
+            }
+            if (expires < System.currentTimeMillis()) {
+                missing.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public void putMissing(String scope, Path path) {
+        if (!isNegativeEnabled()) {
+            return;
+        }
+        Long expires = System.currentTimeMillis() + missingTtl;
+        synchronized (missing) {
+            missing.put(getKey(scope, path), expires);
+        }
+    }
+
+    /**
+     * Returns the status of the given path, asking the filesystem only if no
+     * valid entry is cached for the given user, whose client
+     * <code>fs</code> is.
+     *
+     * @throws java.io.FileNotFoundException if the path does not exist
+     */
+    public FileStatus getFileStatus(String scope, FileSystem fs, Path path) throws IOException {
+        FileStatus status = get(scope, path);
+        if (status == null) {
+            if (isMissing(scope, path)) {
+                throw new FileNotFoundException("File " + path + " does not exist.");
+            }
+            try {
+                status = fs.getFileStatus(path);
+            } catch (FileNotFoundException ex) {
+                putMissing(scope, path);
+                throw ex;
+            }
+            put(scope, path, status);
+        }
+        return status;
+    }
+
+    /**
+     * Drops the given path, everything below it and its parent directory,
+     * whose modification time changes along with its children, for all
+     * the users.
+     */
+    public void invalidate(Path path) {
+        if (isEnabled()) {
+            synchronized (entries) {
+                invalidate(entries, path);
+            }
+        }
+        if (isNegativeEnabled()) {
+            synchronized (missing) {
+                invalidate(missing, path);
+            }
+        }
+    }
+
+    private static void invalidate(Table<?> table, Path path) {
+        String key = getKey(path);
+        table.removePath(key);
+        table.removeBelow(key);
+        Path parent = path.getParent();
+        if (parent != null) {
+            table.removePath(getKey(parent));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        synchronized (missing) {
+            missing.clear();
+        }
+    }
+}
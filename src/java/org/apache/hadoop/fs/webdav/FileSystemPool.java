@@ -0,0 +1,294 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Keeps one {@link FileSystem} client per user, already set up with the
+ * identity of that user, so that serving a request does not need any
+ * configuration work or lookup in the global <code>FileSystem</code> cache.
+ * <p/>
+ * Clients are handed out as {@link Lease}s, held for the whole of a request
+ * or background job and released when it is over. Clients without leases
+ * unused for {@link #IDLE_TIMEOUT_KEY} milliseconds are closed, and the
+ * least recently used ones are dropped beyond {@link #SIZE_KEY} users; a
+ * dropped client still leased is only closed once its last lease is
+ * released.
+ */
+public class FileSystemPool {
+
+    private static final Log LOG = LogFactory.getLog(FileSystemPool.class);
+
+    /**
+     * Maximum number of users having a client in the pool.
+     */
+    public static final String SIZE_KEY = "hadoop.webdav.fs.pool.size";
+    public static final int DEFAULT_SIZE = 256;
+
+    /**
+     * Time in milliseconds after which an unused client is closed.
+     */
+    public static final String IDLE_TIMEOUT_KEY = "hadoop.webdav.fs.pool.idle.timeout";
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000L;
+
+    private final Configuration conf;
+    private final URI uri;
+    private final int maxSize;
+    private final long idleTimeout;
+
+    // guarded by entries
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final List<Entry> retired = new ArrayList<Entry>();
+
+    private static class Entry {
+        final String key;
+        final FileSystem fs;
+        long lastUsed;
+        /** Number of leases not released yet */
+        int refs = 0;
+        /** Whether the entry left the pool, to be closed with its last lease */
+        boolean retired = false;
+
+        Entry(String key, FileSystem fs) {
+            this.key = key;
+            this.fs = fs;
+        }
+    }
+
+    /**
+     * The use of a client by a request or a job. The client stays open
+     * until the lease is released, which must be done exactly once.
+     */
+    public class Lease implements Closeable {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public FileSystem getFileSystem() {
+            return entry.fs;
+        }
+
+        /**
+         * Returns another lease on the same client, for work outliving the
+         * holder of this one.
+         */
+        public Lease retain() {
+            synchronized (entries) {
+                entry.refs++;
+            }
+            return new Lease(entry);
+        }
+
+        public void release() {
+            long now = System.currentTimeMillis();
+            List<FileSystem> toClose;
+            synchronized (entries) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                entry.refs--;
+                entry.lastUsed = now;
+                if (!entry.retired) {
+                    // moves the entry to the most recently used end
+                    entries.get(entry.key);
+                }
+                toClose = evict(now);
+            }
+            closeAll(toClose);
+        }
+
+        /**
+         * Same as {@link #release()}.
+         */
+        public void close() {
+            release();
+        }
+    }
+
+    public FileSystemPool(Configuration conf) {
+        this.conf = conf;
+        this.uri = FileSystem.getDefaultUri(conf);
+        this.maxSize = Math.max(1, conf.getInt(SIZE_KEY, DEFAULT_SIZE));
+        this.idleTimeout = conf.getLong(IDLE_TIMEOUT_KEY, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Leases the client of the given user, creating it if needed. A null
+     * identity gets the client of the gateway itself.
+     */
+    public Lease acquire(UnixUserGroupInformation ugi) throws IOException {
+        String key = ugi == null ? "" : ugi.toString();
+        long now = System.currentTimeMillis();
+        Lease lease = lease(key, now);
+        if (lease != null) {
+            return lease;
+        }
+
+        // set up outside of the lock, this can take a while
+        FileSystem created = newFileSystem(ugi);
+        List<FileSystem> toClose;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, created);
+                entries.put(key, entry);
+                created = null;
+            }
+            entry.refs++;
+            entry.lastUsed = now;
+            lease = new Lease(entry);
+            toClose = evict(now);
+        }
+        if (created != null) {
+            // another request created the client of this user meanwhile
+            toClose.add(created);
+        }
+        closeAll(toClose);
+        return lease;
+    }
+
+    /**
+     * Leases the pooled client of the given key, or returns null if there is
+     * none.
+     */
+    private Lease lease(String key, long now) {
+        List<FileSystem> toClose;
+        Lease lease;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            entry.refs++;
+            entry.lastUsed = now;
+            lease = new Lease(entry);
+            toClose = evict(now);
+        }
+        closeAll(toClose);
+        return lease;
+    }
+
+    private static void closeAll(List<FileSystem> toClose) {
+        for (FileSystem fs : toClose) {
+            try {
+                fs.close();
+            } catch (IOException ex) {
+                LOG.warn(StringUtils.stringifyException(ex));
+            }
+        }
+    }
+
+    /**
+     * Creates a client outside of the global <code>FileSystem</code> cache,
+     * so that closing it does not affect anyone else.
+     */
+    private FileSystem newFileSystem(UnixUserGroupInformation ugi) throws IOException {
+        Configuration userConf = new Configuration(conf);
+        if (ugi != null) {
+            UnixUserGroupInformation.saveToConf(userConf, UnixUserGroupInformation.UGI_PROPERTY_NAME, ugi);
+        }
+        Class<?> clazz = userConf.getClass("fs." + uri.getScheme() + ".impl", null);
+        if (clazz == null) {
+            throw new IOException("No FileSystem for scheme: " + uri.getScheme());
+        }
+        FileSystem fs = (FileSystem) ReflectionUtils.newInstance(clazz, userConf);
+        fs.initialize(uri, userConf);
+        WebdavMetrics metrics = WebdavMetrics.getInstance();
+        if (metrics != null) {
+            fs = new CountingFileSystem(fs, metrics);
+            fs.setConf(userConf);
+        }
+        LOG.debug("Created FileSystem client for " + (ugi == null ? "gateway" : ugi.getUserName()));
+        return fs;
+    }
+
+    /**
+     * Drops the clients that have been idle for too long or exceed the
+     * maximum size, and returns the ones now safe to close. Called with the
+     * lock held.
+     */
+    private List<FileSystem> evict(long now) {
+        List<FileSystem> toClose = new ArrayList<FileSystem>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            boolean idle = idleTimeout > 0 && now - entry.lastUsed > idleTimeout;
+            if (entries.size() > maxSize || (idle && entry.refs == 0)) {
+                it.remove();
+                entry.retired = true;
+                if (entry.refs == 0) {
+                    toClose.add(entry.fs);
+                } else {
+                    retired.add(entry);
+                }
+            } else if (!idle) {
+                // entries are in access order, the rest is more recent
+                break;
+            }
+        }
+        for (Iterator<Entry> it = retired.iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.refs == 0) {
+                it.remove();
+                toClose.add(entry.fs);
+            }
+        }
+        return toClose;
+    }
+
+    /**
+     * Closes all the clients.
+     */
+    public void close() {
+        List<Entry> all = new ArrayList<Entry>();
+        synchronized (entries) {
+            all.addAll(entries.values());
+            all.addAll(retired);
+            entries.clear();
+            retired.clear();
+        }
+        for (Entry entry : all) {
+            try {
+                entry.fs.close();
+            } catch (IOException ex) {
+                LOG.warn(StringUtils.stringifyException(ex));
+            }
+        }
+    }
+}
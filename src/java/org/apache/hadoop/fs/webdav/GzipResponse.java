@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.StringTokenizer;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Compresses XML responses with gzip as they are written. The first bytes
+ * are held until the response proves larger than the threshold; smaller
+ * responses, and responses which are not XML, are sent as they are.
+ * <p/>
+ * {@link #finish()} must be called once the servlet is done with the
+ * response.
+ */
+public class GzipResponse extends HttpServletResponseWrapper {
+
+    /**
+     * Whether XML responses are compressed for clients accepting it, on by
+     * default.
+     */
+    public static final String ENABLED_KEY = "hadoop.webdav.gzip.enabled";
+
+    /**
+     * Size in bytes from which responses are compressed.
+     */
+    public static final String THRESHOLD_KEY = "hadoop.webdav.gzip.threshold";
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * Compression level, from 1 (fastest) to 9 (smallest).
+     */
+    public static final String LEVEL_KEY = "hadoop.webdav.gzip.level";
+    public static final int DEFAULT_LEVEL = 6;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_VARY = "Vary";
+
+    /**
+     * The methods answered with a multistatus document.
+     */
+    private static final String[] XML_METHODS = {"PROPFIND", "PROPPATCH", "REPORT"};
+
+    private final int threshold;
+    private final int level;
+
+    /** The bytes held until the threshold is reached, null once passed */
+    private ByteArrayOutputStream buffer;
+    /** Where the bytes go once the threshold is passed */
+    private OutputStream out;
+    private int contentLength = -1;
+
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED_KEY, true);
+    }
+
+    /**
+     * Tells whether the response to a request is XML and the client takes
+     * gzip encoded content.
+     */
+    public static boolean isCompressible(HttpServletRequest request) {
+        boolean xml = false;
+        for (String method : XML_METHODS) {
+            xml |= method.equals(request.getMethod());
+        }
+        return xml && acceptsGzip(request.getHeader(HEADER_ACCEPT_ENCODING));
+    }
+
+    /**
+     * Parses an <code>Accept-Encoding</code> header, ignoring the weights
+     * but a zero one.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        StringTokenizer codings = new StringTokenizer(acceptEncoding, ",");
+        while (codings.hasMoreTokens()) {
+            String coding = codings.nextToken().trim();
+            String weight = "";
+            int semicolon = coding.indexOf(';');
+            if (semicolon >= 0) {
+                weight = coding.substring(semicolon + 1).replace(" ", "");
+                coding = coding.substring(0, semicolon).trim();
+            }
+            if ((coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip") || coding.equals("*"))
+                && !weight.matches("q=0(\\.0*)?")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public GzipResponse(HttpServletResponse response, int threshold, int level) {
+        super(response);
+        this.threshold = threshold;
+        this.level = level;
+        this.buffer = new ByteArrayOutputStream(Math.min(threshold, 8192));
+        response.addHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+    }
+
+    /**
+     * Sends the bytes held, if any, and ends the compressed stream. The
+     * native memory of the compressor is released even if this fails.
+     */
+    public void finish() throws IOException {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (out == null) {
+                if (buffer.size() == 0) {
+                    return;
+                }
+                contentLength = buffer.size();
+                start(false);
+            }
+            if (out instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) out).finish();
+            }
+            out.flush();
+        } finally {
+            if (out instanceof CompressingStream) {
+                ((CompressingStream) out).end();
+            }
+        }
+    }
+
+    /**
+     * A gzip stream at a given level, whose compressor can be released
+     * without closing the response.
+     */
+    private static class CompressingStream extends GZIPOutputStream {
+        CompressingStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+
+        /**
+         * Frees the compressor. <code>finish()</code> leaves it allocated
+         * until the stream is garbage collected.
+         */
+        void end() {
+            def.end();
+        }
+    }
+
+    /**
+     * Passes the threshold: the response is committed, compressed or not.
+     */
+    private void start(boolean compress) throws IOException {
+        OutputStream raw = getResponse().getOutputStream();
+        if (compress) {
+            super.setHeader(HEADER_CONTENT_ENCODING, "gzip");
+            out = new CompressingStream(raw, level);
+        } else {
+            if (contentLength >= 0) {
+                super.setContentLength(contentLength);
+            }
+            out = raw;
+        }
+        buffer.writeTo(out);
+        buffer = null;
+    }
+
+    private boolean isXml() {
+        String contentType = getContentType();
+        return contentType != null && contentType.indexOf("xml") >= 0;
+    }
+
+    /**
+     * Drops the bytes held, as the servlet starts the response over.
+     */
+    private void discard() {
+        if (buffer != null) {
+            buffer.reset();
+        }
+    }
+
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (stream == null) {
+            stream = new ServletOutputStream() {
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (out == null) {
+                        if (buffer.size() + len < threshold) {
+                            buffer.write(b, off, len);
+                            return;
+                        }
+                        start(isXml());
+                    }
+                    out.write(b, off, len);
+                }
+
+                public void flush() throws IOException {
+                    // held bytes wait for the threshold
+                    if (out != null) {
+                        out.flush();
+                    }
+                }
+
+                public void close() throws IOException {
+                    finish();
+                }
+            };
+        }
+        return stream;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    public void setContentLength(int length) {
+        // known once the response is complete or sent uncompressed
+        contentLength = length;
+    }
+
+    public void setHeader(String name, String value) {
+        if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLength(Integer.parseInt(value));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    public void addHeader(String name, String value) {
+        if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLength(Integer.parseInt(value));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    public void setIntHeader(String name, int value) {
+        if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLength(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    public void flushBuffer() throws IOException {
+        // committing before the threshold would fix the encoding too early
+        if (out != null) {
+            out.flush();
+            super.flushBuffer();
+        }
+    }
+
+    public boolean isCommitted() {
+        return out != null || super.isCommitted();
+    }
+
+    public void resetBuffer() {
+        discard();
+        super.resetBuffer();
+    }
+
+    public void reset() {
+        discard();
+        contentLength = -1;
+        super.reset();
+        super.addHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+    }
+
+    public void sendError(int status) throws IOException {
+        discard();
+        super.sendError(status);
+    }
+
+    public void sendError(int status, String message) throws IOException {
+        discard();
+        super.sendError(status, message);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+
+/**
+ * Thrown when an operation was handed over to the {@link JobEngine}.
+ * {@link WebdavServlet} answers it with a <code>202 Accepted</code>
+ * pointing to the status of the job.
+ */
+public class JobAcceptedException extends DavException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JobEngine.Job job;
+
+    public JobAcceptedException(JobEngine.Job job) {
+        super(DavServletResponse.SC_ACCEPTED);
+        this.job = job;
+    }
+
+    public JobEngine.Job getJob() {
+        return job;
+    }
+}
@@ -0,0 +1,462 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.Status;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+import org.apache.jackrabbit.webdav.xml.Namespace;
+import org.apache.jackrabbit.webdav.xml.XmlSerializable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Runs long COPY, MOVE and DELETE operations in the background for clients
+ * sending <code>Prefer: respond-async</code>. The request is answered at
+ * once with <code>202 Accepted</code> and the location of a status
+ * resource, which reports the progress of the operation and, once it is
+ * over, the paths that failed. Deleting the status resource cancels the
+ * operation.
+ * <p/>
+ * Operations run on a bounded pool, a limited number at a time for each
+ * user; the others wait for their turn without holding a thread.
+ */
+public class JobEngine {
+
+    private static final Log LOG = LogFactory.getLog(JobEngine.class);
+
+    /**
+     * Whether operations may run in the background, on by default.
+     */
+    public static final String ENABLED_KEY = "hadoop.webdav.jobs.enabled";
+
+    /**
+     * Number of operations running at once, all users together.
+     */
+    public static final String THREADS_KEY = "hadoop.webdav.jobs.threads";
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Number of operations of a single user running at once.
+     */
+    public static final String PER_USER_KEY = "hadoop.webdav.jobs.per.user";
+    public static final int DEFAULT_PER_USER = 2;
+
+    /**
+     * Number of operations accepted and not finished yet, beyond which
+     * requests are refused with <code>503</code>.
+     */
+    public static final String MAX_PENDING_KEY = "hadoop.webdav.jobs.max.pending";
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    /**
+     * Time in milliseconds the status of a finished operation is kept.
+     */
+    public static final String RETENTION_KEY = "hadoop.webdav.jobs.retention";
+    public static final long DEFAULT_RETENTION = 60 * 60 * 1000L;
+
+    /**
+     * Path under which the status resources are served. It hides the
+     * filesystem path of the same name.
+     */
+    public static final String PATH_KEY = "hadoop.webdav.jobs.path";
+    public static final String DEFAULT_PATH = "/.webdav-jobs";
+
+    public static final Namespace NAMESPACE = Namespace.getNamespace("j", "urn:hadoop-webdav:jobs");
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    /**
+     * The work done by a job.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation, reporting the paths that fail with
+         * {@link Job#addFailure(String, int)}.
+         *
+         * @throws DavException if the operation failed as a whole
+         */
+        void run(Job job) throws DavException;
+    }
+
+    private final ExecutorService executor;
+    private final int perUser;
+    private final int maxPending;
+    private final long retention;
+    private final String path;
+    private final Random random = new Random();
+
+    /** All the jobs known, in order of creation */
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<String, Job>();
+    /** The jobs of each user waiting for one of its running jobs to end */
+    private final Map<String, LinkedList<Job>> waiting = new HashMap<String, LinkedList<Job>>();
+    /** The number of running jobs of each user */
+    private final Map<String, Integer> running = new HashMap<String, Integer>();
+    private int pending = 0;
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED_KEY, true);
+    }
+
+    public JobEngine(Configuration conf) {
+        int threads = Math.max(1, conf.getInt(THREADS_KEY, DEFAULT_THREADS));
+        this.perUser = Math.max(1, conf.getInt(PER_USER_KEY, DEFAULT_PER_USER));
+        this.maxPending = conf.getInt(MAX_PENDING_KEY, DEFAULT_MAX_PENDING);
+        this.retention = conf.getLong(RETENTION_KEY, DEFAULT_RETENTION);
+        String p = conf.get(PATH_KEY, DEFAULT_PATH);
+        this.path = p.endsWith("/") ? p.substring(0, p.length() - 1) : p;
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                                               60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "webdav-job-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the path of the status resource of a job.
+     */
+    public String getStatusPath(Job job) {
+        return path + "/" + job.getId();
+    }
+
+    /**
+     * Returns the id of the job whose status resource is at the given
+     * path, or null if the path is not a status resource.
+     */
+    public String getJobId(String resourcePath) {
+        if (resourcePath == null || !resourcePath.startsWith(path + "/")) {
+            return null;
+        }
+        String id = resourcePath.substring(path.length() + 1);
+        return id.length() == 0 || id.indexOf('/') >= 0 ? null : id;
+    }
+
+    /**
+     * Tells whether the given path is where the status resources live.
+     */
+    public boolean isStatusPath(String resourcePath) {
+        return resourcePath != null && (resourcePath.equals(path) || resourcePath.startsWith(path + "/"));
+    }
+
+    /**
+     * Accepts an operation to run in the background.
+     *
+     * @param resources what the operation holds, closed once the job is
+     *        over whether it ran or not, or if it is not accepted
+     * @throws DavException with <code>503</code> if too many operations are
+     *         pending already
+     */
+    public Job submit(String user,
+                      String method,
+                      String source,
+                      String destination,
+                      Operation operation,
+                      Closeable resources) throws DavException {
+        Job job;
+        synchronized (this) {
+            purge(System.currentTimeMillis());
+            if (maxPending > 0 && pending >= maxPending) {
+                closeQuietly(resources);
+                throw new DavException(DavServletResponse.SC_SERVICE_UNAVAILABLE,
+                                       "Too many operations in progress.");
+            }
+            String id;
+            do {
+                id = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            } while (jobs.containsKey(id));
+            job = new Job(id, user, method, source, destination, operation, resources);
+            jobs.put(id, job);
+            pending++;
+            Integer count = running.get(job.getUserKey());
+            if (count != null && count >= perUser) {
+                LinkedList<Job> queue = waiting.get(job.getUserKey());
+                if (queue == null) {
+                    queue = new LinkedList<Job>();
+                    waiting.put(job.getUserKey(), queue);
+                }
+                queue.add(job);
+                return job;
+            }
+            running.put(job.getUserKey(), count == null ? 1 : count + 1);
+        }
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * Returns the job with the given id, or null if it is unknown or its
+     * status was dropped.
+     */
+    public synchronized Job get(String id) {
+        purge(System.currentTimeMillis());
+        return jobs.get(id);
+    }
+
+    /**
+     * Called by a job once it is over, starts the next job of its user.
+     */
+    private void finished(Job job) {
+        Job next = null;
+        synchronized (this) {
+            pending--;
+            LinkedList<Job> queue = waiting.get(job.getUserKey());
+            if (queue != null) {
+                next = queue.poll();
+                if (queue.isEmpty()) {
+                    waiting.remove(job.getUserKey());
+                }
+            }
+            if (next == null) {
+                int count = running.get(job.getUserKey()) - 1;
+                if (count == 0) {
+                    running.remove(job.getUserKey());
+                } else {
+                    running.put(job.getUserKey(), count);
+                }
+            }
+        }
+        if (next != null) {
+            executor.execute(next);
+        }
+    }
+
+    private static void closeQuietly(Closeable resources) {
+        try {
+            resources.close();
+        } catch (IOException ex) {
+            LOG.warn(StringUtils.stringifyException(ex));
+        }
+    }
+
+    /**
+     * Drops the status of the jobs finished for longer than the retention
+     * time.
+     */
+    private void purge(long now) {
+        Iterator<Job> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            Job job = it.next();
+            long finished = job.getFinishTime();
+            if (finished > 0 && finished + retention < now) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * An operation accepted by the engine.
+     */
+    public class Job implements Runnable, XmlSerializable {
+        private final String id;
+        private final String user;
+        private final String method;
+        private final String source;
+        private final String destination;
+        private final Operation operation;
+        private final Closeable resources;
+        private final long created = System.currentTimeMillis();
+
+        private volatile String state = QUEUED;
+        private volatile long started = 0;
+        private volatile long finished = 0;
+        private volatile boolean cancelled = false;
+        private volatile String message;
+        private volatile TreeCopier.Job copy;
+
+        /** The paths that failed, with their status */
+        private final Map<String, Integer> failures = new LinkedHashMap<String, Integer>();
+
+        Job(String id,
+            String user,
+            String method,
+            String source,
+            String destination,
+            Operation operation,
+            Closeable resources) {
+            this.id = id;
+            this.user = user;
+            this.method = method;
+            this.source = source;
+            this.destination = destination;
+            this.operation = operation;
+            this.resources = resources;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the user who submitted the job. Anonymous requests are
+         * never run in the background.
+         */
+        public String getUser() {
+            return user;
+        }
+
+        private String getUserKey() {
+            return user == null ? "" : user;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        long getFinishTime() {
+            return finished;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Stops the job. A queued job never starts; a running copy stops at
+         * its next buffer, other operations cannot be interrupted.
+         */
+        public void cancel() {
+            cancelled = true;
+            TreeCopier.Job current = copy;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        /**
+         * Reports the progress of the job through the given copy, which is
+         * cancelled along with the job.
+         */
+        public void track(TreeCopier.Job copy) {
+            this.copy = copy;
+            if (cancelled) {
+                copy.cancel();
+            }
+        }
+
+        public synchronized void addFailure(String href, int status) {
+            failures.put(href, status);
+        }
+
+        public void run() {
+            try {
+                if (cancelled) {
+                    state = CANCELLED;
+                    return;
+                }
+                started = System.currentTimeMillis();
+                state = RUNNING;
+                try {
+                    operation.run(this);
+                    synchronized (this) {
+                        state = cancelled ? CANCELLED : failures.isEmpty() ? SUCCEEDED : FAILED;
+                    }
+                } catch (DavException ex) {
+                    message = ex.getMessage();
+                    addFailure(source, ex.getErrorCode());
+                    state = cancelled ? CANCELLED : FAILED;
+                } catch (RuntimeException ex) {
+                    LOG.warn(StringUtils.stringifyException(ex));
+                    message = ex.toString();
+                    addFailure(source, DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    state = FAILED;
+                }
+                LOG.info(method + " " + source + (destination == null ? "" : " to " + destination)
+                         + " " + state + " in " + (System.currentTimeMillis() - started) + " ms");
+            } finally {
+                closeQuietly(resources);
+                finished = System.currentTimeMillis();
+                finished(this);
+            }
+        }
+
+        public synchronized Element toXml(Document document) {
+            Element job = DomUtil.createElement(document, "job", NAMESPACE);
+            DomUtil.addChildElement(job, "id", NAMESPACE, id);
+            DomUtil.addChildElement(job, "method", NAMESPACE, method);
+            DomUtil.addChildElement(job, "source", NAMESPACE, source);
+            if (destination != null) {
+                DomUtil.addChildElement(job, "destination", NAMESPACE, destination);
+            }
+            DomUtil.addChildElement(job, "state", NAMESPACE, state);
+            DomUtil.addChildElement(job, "created", NAMESPACE, formatDate(created));
+            if (started > 0) {
+                DomUtil.addChildElement(job, "started", NAMESPACE, formatDate(started));
+            }
+            if (finished > 0) {
+                DomUtil.addChildElement(job, "finished", NAMESPACE, formatDate(finished));
+            }
+            TreeCopier.Job current = copy;
+            if (current != null) {
+                DomUtil.addChildElement(job, "files", NAMESPACE, String.valueOf(current.getFilesCopied()));
+                DomUtil.addChildElement(job, "bytes", NAMESPACE, String.valueOf(current.getBytesCopied()));
+            }
+            if (message != null) {
+                DomUtil.addChildElement(job, "message", NAMESPACE, message);
+            }
+            for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+                Element response = DomUtil.addChildElement(job, DavConstants.XML_RESPONSE, DavConstants.NAMESPACE);
+                response.appendChild(DomUtil.hrefToXml(failure.getKey(), document));
+                response.appendChild(new Status(failure.getValue()).toXml(document));
+            }
+            return job;
+        }
+    }
+
+    private static String formatDate(long time) {
+        DateFormat format = (DateFormat) DavConstants.modificationDateFormat.clone();
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+}
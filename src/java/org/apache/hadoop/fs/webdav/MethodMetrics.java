@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and latencies of the requests of one WebDAV method.
+ */
+public class MethodMetrics implements MethodMetricsMBean {
+
+    private final String method;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong serverErrors = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    MethodMetrics(String method) {
+        this.method = method;
+    }
+
+    void record(long micros, int status) {
+        requests.incrementAndGet();
+        if (status >= 500) {
+            serverErrors.incrementAndGet();
+        }
+        latency.record(micros);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getServerErrors() {
+        return serverErrors.get();
+    }
+
+    public long getMeanLatency() {
+        return latency.getMean();
+    }
+
+    public long getLatency50thPercentile() {
+        return latency.getPercentile(0.5);
+    }
+
+    public long getLatency99thPercentile() {
+        return latency.getPercentile(0.99);
+    }
+
+    public long getLatency999thPercentile() {
+        return latency.getPercentile(0.999);
+    }
+
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -15,20 +15,22 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.hadoop.fs.webdav;
 
-import org.apache.jackrabbit.webdav.DavException;
-import org.apache.jackrabbit.webdav.DavSessionProvider;
-import org.apache.jackrabbit.webdav.WebdavRequest;
+/**
+ * JMX view of the requests of one WebDAV method, latencies in microseconds.
+ */
+public interface MethodMetricsMBean {
+
+    long getRequests();
+
+    long getServerErrors();
 
-public class FakeDavSessionProvider implements DavSessionProvider {
+    long getMeanLatency();
 
-    public boolean attachSession(WebdavRequest request) throws DavException {
-        return true;
-    }
+    long getLatency50thPercentile();
 
-    public void releaseSession(WebdavRequest request) {
-    }
+    long getLatency99thPercentile();
 
+    long getLatency999thPercentile();
 }
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameIterator;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes a multistatus body to a stream one response at a time. Unlike
+ * {@link org.apache.jackrabbit.webdav.MultiStatus}, which keeps every
+ * response until the whole document is serialized, each response is written
+ * out and dropped as soon as it is added, so memory use does not grow with
+ * the number of resources and the client starts receiving data right away.
+ * The stream is only flushed every {@link #FLUSH_EVERY} responses, so that
+ * large listings are sent in full buffers rather than one small write per
+ * resource.
+ */
+public class MultiStatusWriter {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        OUTPUT_FACTORY.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+    }
+
+    private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
+
+    /**
+     * Number of responses written between two flushes of the stream.
+     */
+    static final int FLUSH_EVERY = 256;
+
+    private final XMLStreamWriter writer;
+
+    /**
+     * Scratch document the responses are rendered into before being written.
+     * Rendered elements are never attached to it.
+     */
+    private final Document document;
+
+    private int unflushed = 0;
+
+    public MultiStatusWriter(OutputStream out) throws IOException {
+        try {
+            document = DomUtil.BUILDER_FACTORY.newDocumentBuilder().newDocument();
+            writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(DavConstants.NAMESPACE.getPrefix(),
+                                     DavConstants.XML_MULTISTATUS,
+                                     DavConstants.NAMESPACE.getURI());
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex.getMessage());
+        } catch (XMLStreamException ex) {
+            throw toIOException(ex);
+        }
+    }
+
+    /**
+     * Writes the properties of the given resource and, up to the given depth,
+     * of its members.
+     *
+     * @see org.apache.jackrabbit.webdav.MultiStatus#addResourceProperties(DavResource, DavPropertyNameSet, int, int)
+     */
+    public void addResourceProperties(DavResource resource,
+                                      DavPropertyNameSet propNameSet,
+                                      int propFindType,
+                                      int depth) throws IOException {
+        addResponse(createResponse(resource, propNameSet, propFindType));
+        if (depth > 0 && resource.isCollection()) {
+            DavResourceIterator iter = resource.getMembers();
+            while (iter.hasNext()) {
+                addResourceProperties(iter.nextResource(), propNameSet, propFindType, depth - 1);
+            }
+        }
+    }
+
+    /**
+     * Builds the response for a single resource. When named properties are
+     * requested, only those are asked from the resource so that it can skip
+     * computing the others; {@link MultiStatusResponse} would fetch them
+     * all and filter afterwards.
+     */
+    static MultiStatusResponse createResponse(DavResource resource,
+                                              DavPropertyNameSet propNameSet,
+                                              int propFindType) {
+        if (propFindType != DavConstants.PROPFIND_BY_PROPERTY) {
+            return new MultiStatusResponse(resource, propNameSet, propFindType);
+        }
+        MultiStatusResponse response = new MultiStatusResponse(resource.getHref(), null);
+        DavPropertyNameIterator iter = propNameSet.iterator();
+        while (iter.hasNext()) {
+            DavPropertyName name = iter.nextPropertyName();
+            DavProperty property = resource.getProperty(name);
+            if (property != null) {
+                response.add(property);
+            } else {
+                response.add(name, DavServletResponse.SC_NOT_FOUND);
+            }
+        }
+        return response;
+    }
+
+    public void addResponse(MultiStatusResponse response) throws IOException {
+        try {
+            writeNode(response.toXml(document));
+            if (++unflushed >= FLUSH_EVERY) {
+                writer.flush();
+                unflushed = 0;
+            }
+        } catch (XMLStreamException ex) {
+            throw toIOException(ex);
+        }
+    }
+
+    /**
+     * Ends the multistatus document. The underlying stream is flushed but
+     * left open.
+     */
+    public void close() throws IOException {
+        try {
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException ex) {
+            throw toIOException(ex);
+        }
+    }
+
+    private void writeNode(Node node) throws XMLStreamException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            writeElement((Element) node);
+            break;
+        case Node.TEXT_NODE:
+            writer.writeCharacters(node.getNodeValue());
+            break;
+        case Node.CDATA_SECTION_NODE:
+            writer.writeCData(node.getNodeValue());
+            break;
+        default:
+            // comments and processing instructions are not part of a response
+            break;
+        }
+    }
+
+    private void writeElement(Element element) throws XMLStreamException {
+        boolean empty = !element.hasChildNodes();
+        String uri = element.getNamespaceURI();
+        if (uri == null) {
+            if (empty) {
+                writer.writeEmptyElement(element.getNodeName());
+            } else {
+                writer.writeStartElement(element.getNodeName());
+            }
+        } else {
+            String prefix = element.getPrefix();
+            if (prefix == null) {
+                prefix = "";
+            }
+            if (empty) {
+                writer.writeEmptyElement(prefix, element.getLocalName(), uri);
+            } else {
+                writer.writeStartElement(prefix, element.getLocalName(), uri);
+            }
+        }
+
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            String attrUri = attr.getNamespaceURI();
+            if (XMLNS_URI.equals(attrUri) || attr.getName().startsWith("xmlns")) {
+                // namespace declarations are repaired by the writer
+                continue;
+            }
+            if (attrUri == null) {
+                writer.writeAttribute(attr.getName(), attr.getValue());
+            } else {
+                String prefix = attr.getPrefix();
+                writer.writeAttribute(prefix == null ? "" : prefix,
+                                      attrUri,
+                                      attr.getLocalName(),
+                                      attr.getValue());
+            }
+        }
+
+        if (!empty) {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                writeNode(child);
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    private static IOException toIOException(XMLStreamException ex) {
+        IOException ioe = new IOException(ex.getMessage());
+        ioe.initCause(ex);
+        return ioe;
+    }
+}
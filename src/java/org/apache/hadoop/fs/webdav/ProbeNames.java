@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Names of the files desktop clients keep looking for in every folder
+ * they open, such as the AppleDouble files of the Finder or the folder
+ * settings of the Explorer. Paths with these names are reported missing
+ * without asking the NameNode, and cannot be created through the gateway.
+ * <p/>
+ * This hides the existing files with these names, so no name is matched
+ * unless configured; {@link #SUGGESTED_PATTERNS} lists the usual ones.
+ * Without it, repeated probes are still absorbed by the negative part of
+ * the {@link FileStatusCache}.
+ */
+public class ProbeNames {
+
+    /**
+     * Comma separated glob patterns of the names, matched ignoring case.
+     * Empty to look every name up.
+     */
+    public static final String PATTERNS_KEY = "hadoop.webdav.probe.names";
+    public static final String DEFAULT_PATTERNS = "";
+
+    /**
+     * The names the Finder and the Explorer probe for.
+     */
+    public static final String SUGGESTED_PATTERNS = "._*,.DS_Store,desktop.ini,Thumbs.db,.hidden";
+
+    /** All the patterns as a single expression, null if there are none */
+    private final Pattern pattern;
+
+    public ProbeNames(Configuration conf) {
+        this(conf.get(PATTERNS_KEY, DEFAULT_PATTERNS));
+    }
+
+    public ProbeNames(String globs) {
+        StringBuilder regex = new StringBuilder();
+        for (String glob : globs.split(",")) {
+            glob = glob.trim();
+            if (glob.length() == 0) {
+                continue;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append(toRegex(glob));
+        }
+        this.pattern = regex.length() == 0 ? null : Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Translates a glob with <code>*</code> and <code>?</code> wildcards.
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Tells whether the last component of the given path is a probe name.
+     */
+    public boolean matches(Path path) {
+        return pattern != null && pattern.matcher(path.getName()).matches();
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Copies a range of a file to a stream while the chunks following the
+ * current position are fetched concurrently with positioned reads. Chunks
+ * never cross a block boundary, so chunks of different blocks are read from
+ * their own datanodes in parallel; they are written out in file order.
+ * Setting the chunk size to the block size of the files being served reads
+ * whole blocks concurrently.
+ * <p/>
+ * The worker threads are shared by all downloads and never wait for a
+ * consumer, so a busy pool only delays chunks and cannot deadlock. The
+ * chunks in memory are bounded across all downloads by
+ * {@link #MAX_BYTES_KEY}; a download finding the budget exhausted with no
+ * chunk of its own in flight goes on with plain sequential reads.
+ */
+public class ReadAheadSpooler {
+
+    /**
+     * Whether large downloads use read-ahead at all, off by default.
+     */
+    public static final String ENABLED_KEY = "hadoop.webdav.readahead.enabled";
+
+    /**
+     * Number of positioned-read workers shared by all downloads.
+     */
+    public static final String THREADS_KEY = "hadoop.webdav.readahead.threads";
+    public static final int DEFAULT_THREADS = 16;
+
+    /**
+     * Number of chunks of a single download being fetched at any time.
+     */
+    public static final String WINDOW_KEY = "hadoop.webdav.readahead.window";
+    public static final int DEFAULT_WINDOW = 4;
+
+    /**
+     * Size in bytes of a single positioned read.
+     */
+    public static final String CHUNK_SIZE_KEY = "hadoop.webdav.readahead.chunk.size";
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Most bytes held in fetched or pending chunks by all the downloads.
+     */
+    public static final String MAX_BYTES_KEY = "hadoop.webdav.readahead.max.bytes";
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Size of the buffer of downloads falling back to sequential reads.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService executor;
+    private final int window;
+    private final int chunkSize;
+    /** One permit per chunk the budget allows */
+    private final Semaphore chunks;
+
+    public ReadAheadSpooler(Configuration conf) {
+        int threads = conf.getInt(THREADS_KEY, DEFAULT_THREADS);
+        this.window = Math.max(1, conf.getInt(WINDOW_KEY, DEFAULT_WINDOW));
+        this.chunkSize = Math.max(1, conf.getInt(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE));
+        long maxBytes = conf.getLong(MAX_BYTES_KEY, DEFAULT_MAX_BYTES);
+        this.chunks = new Semaphore((int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / chunkSize)));
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                                               60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "webdav-readahead-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED_KEY, false);
+    }
+
+    /**
+     * Read-ahead only pays off when there is more than one chunk to fetch.
+     */
+    public boolean isWorthwhile(long length) {
+        return length > chunkSize;
+    }
+
+    /**
+     * Copies <code>length</code> bytes of the given stream, starting at
+     * <code>offset</code>, to <code>out</code>.
+     *
+     * @param blockSize the block size of the file, chunks are aligned to it
+     */
+    public void copy(FSDataInputStream in,
+                     long blockSize,
+                     long offset,
+                     long length,
+                     OutputStream out) throws IOException {
+        long end = offset + length;
+        long next = offset;
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        try {
+            while (next < end || !pending.isEmpty()) {
+                while (next < end && pending.size() < window && chunks.tryAcquire()) {
+                    long chunkEnd = Math.min(end, next + chunkSize);
+                    if (blockSize > 0) {
+                        chunkEnd = Math.min(chunkEnd, (next / blockSize + 1) * blockSize);
+                    }
+                    pending.add(executor.submit(new ChunkReader(in, next, (int) (chunkEnd - next))));
+                    next = chunkEnd;
+                }
+                if (pending.isEmpty()) {
+                    // out of budget
+                    copySequentially(in, next, end - next, out);
+                    return;
+                }
+                try {
+                    out.write(await(pending.removeFirst()));
+                } finally {
+                    chunks.release();
+                }
+            }
+        } finally {
+            // chunks being read are left to finish: interrupting a thread
+            // inside an IPC call closes the connection shared with others
+            for (Future<byte[]> f : pending) {
+                f.cancel(false);
+                chunks.release();
+            }
+        }
+    }
+
+    private static void copySequentially(FSDataInputStream in,
+                                         long offset,
+                                         long length,
+                                         OutputStream out) throws IOException {
+        in.seek(offset);
+        byte[] buf = new byte[(int) Math.min(COPY_BUFFER_SIZE, length)];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Unexpected end of file at " + (offset + length - remaining));
+            }
+            out.write(buf, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for read-ahead");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException("Read-ahead failed: " + cause);
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    private static class ChunkReader implements Callable<byte[]> {
+        private final FSDataInputStream in;
+        private final long position;
+        private final int length;
+
+        ChunkReader(FSDataInputStream in, long position, int length) {
+            this.in = in;
+            this.position = position;
+            this.length = length;
+        }
+
+        public byte[] call() throws IOException {
+            byte[] buf = new byte[length];
+            in.readFully(position, buf, 0, length);
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Records the status and the number of body bytes of a response.
+ */
+public class ResponseRecorder extends HttpServletResponseWrapper {
+
+    private int status = SC_OK;
+    private long bytes = 0;
+    private ServletOutputStream out;
+
+    public ResponseRecorder(HttpServletResponse response) {
+        super(response);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+        super.setStatus(status);
+    }
+
+    public void setStatus(int status, String message) {
+        this.status = status;
+        super.setStatus(status, message);
+    }
+
+    public void sendError(int status) throws IOException {
+        this.status = status;
+        super.sendError(status);
+    }
+
+    public void sendError(int status, String message) throws IOException {
+        this.status = status;
+        super.sendError(status, message);
+    }
+
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = new RecordingOutputStream(super.getOutputStream());
+        }
+        return out;
+    }
+
+    /**
+     * The stream of the response, counting the bytes written to it.
+     */
+    class RecordingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+
+        RecordingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Returns the stream of the wrapped response.
+         */
+        ServletOutputStream getDelegate() {
+            return delegate;
+        }
+
+        /**
+         * Counts bytes written straight to the wrapped stream.
+         */
+        void record(long length) {
+            bytes += length;
+        }
+
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            bytes++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            bytes += len;
+        }
+
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
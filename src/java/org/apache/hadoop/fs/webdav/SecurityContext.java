@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.security.UnixUserGroupInformation;
+
+/**
+ * The identity a request is served with: the authenticated user, its roles
+ * and the Hadoop identity derived from them. It is built once per request
+ * and never modified, so that it can be shared by all the resources of the
+ * request without any synchronization.
+ */
+public final class SecurityContext {
+
+    /**
+     * The context of unauthenticated requests, served with the identity of
+     * the gateway itself.
+     */
+    public static final SecurityContext ANONYMOUS = new SecurityContext(null, null);
+
+    private final String userName;
+    private final List<String> roles;
+    private final UnixUserGroupInformation ugi;
+
+    public SecurityContext(String userName, List<String> roles) {
+        this.userName = userName;
+        this.roles = roles == null
+            ? Collections.<String>emptyList()
+            : Collections.unmodifiableList(new ArrayList<String>(roles));
+        this.ugi = userName == null
+            ? null
+            : new UnixUserGroupInformation(userName, this.roles.toArray(new String[this.roles.size()]));
+    }
+
+    /**
+     * Returns the name of the authenticated user, or null if anonymous.
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Returns the Hadoop identity of the user, or null if anonymous.
+     */
+    public UnixUserGroupInformation getUgi() {
+        return ugi;
+    }
+
+    public boolean isAnonymous() {
+        return userName == null;
+    }
+
+    public String toString() {
+        return isAnonymous() ? "anonymous" : userName + " " + roles;
+    }
+}
@@ -0,0 +1,455 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.DavSession;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.DefaultActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockInfo;
+import org.apache.jackrabbit.webdav.lock.LockManager;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+
+/**
+ * Keeps the WebDAV locks of the whole gateway in memory. Only exclusive
+ * write locks are supported, at most one per path.
+ * <p/>
+ * Locks are found by path and by token in concurrent tables, so checking
+ * whether a request may modify a path takes a lookup per ancestor and no
+ * locking. Each ancestor also counts the locks below it, which tells at
+ * once whether a collection may be locked with depth infinity, moved or
+ * deleted; the paths are kept sorted, so that the locks below a path are
+ * found as a range of the table. Changes are serialized per top-level
+ * directory, with one of a fixed set of locks; locking the root takes them
+ * all.
+ * <p/>
+ * Lock timeouts are tracked in a {@link TimingWheel} which a background
+ * thread advances every second.
+ */
+public class StripedLockManager implements LockManager {
+
+    private static final Log LOG = LogFactory.getLog(StripedLockManager.class);
+
+    /**
+     * Timeout in seconds of the locks whose client did not ask for one.
+     */
+    public static final String TIMEOUT_KEY = "hadoop.webdav.lock.timeout";
+    public static final long DEFAULT_TIMEOUT = 180;
+
+    /**
+     * Longest timeout in seconds a lock is granted, whatever the client asks.
+     */
+    public static final String MAX_TIMEOUT_KEY = "hadoop.webdav.lock.timeout.max";
+    public static final long DEFAULT_MAX_TIMEOUT = 3600;
+
+    private static final int STRIPES = 64;
+    private static final long TICK = 1000;
+
+    /**
+     * A lock on a path.
+     */
+    private static class Entry extends TimingWheel.Timeout {
+        final String key;
+        final DefaultActiveLock lock;
+        final String userName;
+
+        Entry(String key, DefaultActiveLock lock, String userName) {
+            this.key = key;
+            this.lock = lock;
+            this.userName = userName;
+        }
+    }
+
+    private final long defaultTimeout;
+    private final long maxTimeout;
+
+    private final ConcurrentNavigableMap<String, Entry> locksByPath = new ConcurrentSkipListMap<String, Entry>();
+    private final ConcurrentMap<String, Entry> locksByToken = new ConcurrentHashMap<String, Entry>();
+    /** Number of locks strictly below each path holding any */
+    private final ConcurrentMap<String, AtomicInteger> locksBelow = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService reaper;
+
+    public StripedLockManager(Configuration conf) {
+        this.defaultTimeout = conf.getLong(TIMEOUT_KEY, DEFAULT_TIMEOUT) * 1000;
+        this.maxTimeout = conf.getLong(MAX_TIMEOUT_KEY, DEFAULT_MAX_TIMEOUT) * 1000;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.wheel = new TimingWheel(TICK, System.currentTimeMillis());
+        this.reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "webdav-lock-expiry");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                expire();
+            }
+        }, TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of locks currently held.
+     */
+    public int size() {
+        return locksByPath.size();
+    }
+
+    public ActiveLock createLock(LockInfo lockInfo, DavResource resource) throws DavException {
+        return createLock(lockInfo, getPath(resource), resource.getSession());
+    }
+
+    ActiveLock createLock(LockInfo lockInfo, Path path, DavSession session) throws DavException {
+        if (!Type.WRITE.equals(lockInfo.getType()) || !Scope.EXCLUSIVE.equals(lockInfo.getScope())) {
+            throw new DavException(DavServletResponse.SC_PRECONDITION_FAILED,
+                                   "Only exclusive write locks are supported.");
+        }
+        String key = FileStatusCache.getKey(path);
+        lockStripes(key);
+        try {
+            if (findLock(key) != null || (lockInfo.isDeep() && hasLocksBelow(key))) {
+                throw new DavException(DavServletResponse.SC_LOCKED);
+            }
+            Entry stale = locksByPath.get(key);
+            if (stale != null) {
+                // expired but not reaped yet, its token and counts go first
+                remove(stale);
+            }
+            DefaultActiveLock lock = new DefaultActiveLock(lockInfo);
+            long timeout = getTimeout(lockInfo.getTimeout());
+            lock.setTimeout(timeout);
+            Entry entry = new Entry(key, lock, FSDavSession.getSecurityContext(session).getUserName());
+            locksByPath.put(key, entry);
+            locksByToken.put(lock.getToken(), entry);
+            for (String parent = getParentKey(key); parent != null; parent = getParentKey(parent)) {
+                AtomicInteger count = locksBelow.get(parent);
+                if (count == null) {
+                    count = new AtomicInteger();
+                    AtomicInteger existing = locksBelow.putIfAbsent(parent, count);
+                    if (existing != null) {
+                        count = existing;
+                    }
+                }
+                count.incrementAndGet();
+            }
+            wheel.schedule(entry, System.currentTimeMillis() + timeout);
+            return lock;
+        } finally {
+            unlockStripes(key);
+        }
+    }
+
+    public ActiveLock refreshLock(LockInfo lockInfo, String lockToken, DavResource resource)
+        throws DavException {
+        return refreshLock(lockInfo, lockToken, getPath(resource), resource.getSession());
+    }
+
+    ActiveLock refreshLock(LockInfo lockInfo, String lockToken, Path path, DavSession session)
+        throws DavException {
+        String key = FileStatusCache.getKey(path);
+        Entry entry = locksByToken.get(lockToken);
+        if (entry == null || !covers(entry, key)) {
+            throw new DavException(DavServletResponse.SC_PRECONDITION_FAILED);
+        }
+        checkOwner(entry, session);
+        lockStripes(entry.key);
+        try {
+            // the lock may have expired or been released meanwhile
+            if (locksByPath.get(entry.key) != entry || entry.lock.isExpired()) {
+                throw new DavException(DavServletResponse.SC_PRECONDITION_FAILED);
+            }
+            long timeout = getTimeout(lockInfo.getTimeout());
+            entry.lock.setTimeout(timeout);
+            wheel.schedule(entry, System.currentTimeMillis() + timeout);
+            return entry.lock;
+        } finally {
+            unlockStripes(entry.key);
+        }
+    }
+
+    public void releaseLock(String lockToken, DavResource resource) throws DavException {
+        releaseLock(lockToken, getPath(resource), resource.getSession());
+    }
+
+    void releaseLock(String lockToken, Path path, DavSession session) throws DavException {
+        Entry entry = lockToken == null ? null : locksByToken.get(lockToken);
+        if (entry == null || !covers(entry, FileStatusCache.getKey(path))) {
+            throw new DavException(DavServletResponse.SC_CONFLICT, "Lock token does not match the resource.");
+        }
+        checkOwner(entry, session);
+        remove(entry);
+    }
+
+    public ActiveLock getLock(Type type, Scope scope, DavResource resource) {
+        if (!Type.WRITE.equals(type) || !Scope.EXCLUSIVE.equals(scope)) {
+            return null;
+        }
+        Entry entry = findLock(getKey(resource));
+        return entry == null ? null : entry.lock;
+    }
+
+    public boolean hasLock(String lockToken, DavResource resource) {
+        Entry entry = locksByToken.get(lockToken);
+        return entry != null && !entry.lock.isExpired() && covers(entry, getKey(resource));
+    }
+
+    /**
+     * Checks that the given session may modify a path, i.e. that it holds
+     * the token of every lock on the path or on an ancestor with depth
+     * infinity, and with <code>subtree</code> set, of every lock below it.
+     *
+     * @throws DavException with <code>423 Locked</code> otherwise
+     */
+    public void checkUnlocked(Path path, DavSession session, boolean subtree) throws DavException {
+        if (locksByPath.isEmpty()) {
+            return;
+        }
+        String key = FileStatusCache.getKey(path);
+        Entry entry = findLock(key);
+        if (entry != null && !isHeldBy(entry, session)) {
+            throw new DavException(DavServletResponse.SC_LOCKED, key + " is locked.");
+        }
+        if (subtree && hasLocksBelow(key)) {
+            for (Entry below : getLocksBelow(key).values()) {
+                if (!below.lock.isExpired() && !isHeldBy(below, session)) {
+                    throw new DavException(DavServletResponse.SC_LOCKED, below.key + " is locked.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the locks on a path and below it, to be called once it has been
+     * deleted or moved away.
+     */
+    public void removeLocks(Path path) {
+        if (locksByPath.isEmpty()) {
+            return;
+        }
+        String key = FileStatusCache.getKey(path);
+        Entry entry = locksByPath.get(key);
+        if (entry != null) {
+            remove(entry);
+        }
+        if (hasLocksBelow(key)) {
+            for (Entry below : getLocksBelow(key).values()) {
+                remove(below);
+            }
+        }
+    }
+
+    /**
+     * Returns the lock applying to a path: its own, or the nearest one with
+     * depth infinity on an ancestor. Expired locks are ignored.
+     */
+    private Entry findLock(String key) {
+        Entry entry = locksByPath.get(key);
+        if (entry != null && !entry.lock.isExpired()) {
+            return entry;
+        }
+        for (String parent = getParentKey(key); parent != null; parent = getParentKey(parent)) {
+            entry = locksByPath.get(parent);
+            if (entry != null && entry.lock.isDeep() && !entry.lock.isExpired()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the locks strictly below a path.
+     */
+    private ConcurrentNavigableMap<String, Entry> getLocksBelow(String key) {
+        String prefix = key.equals("/") ? "" : key;
+        // '0' follows '/', the range holds exactly the paths below key
+        return locksByPath.subMap(prefix + "/", false, prefix + "0", false);
+    }
+
+    private boolean hasLocksBelow(String key) {
+        AtomicInteger count = locksBelow.get(key);
+        return count != null && count.get() > 0;
+    }
+
+    /**
+     * Tells whether a lock applies to a path.
+     */
+    private static boolean covers(Entry entry, String key) {
+        if (entry.key.equals(key)) {
+            return true;
+        }
+        String prefix = entry.key.equals("/") ? entry.key : entry.key + "/";
+        return entry.lock.isDeep() && key.startsWith(prefix);
+    }
+
+    /**
+     * Tells whether the session submitted the token of a lock. A token only
+     * counts when submitted by the user who created the lock.
+     */
+    private static boolean isHeldBy(Entry entry, DavSession session) {
+        if (session == null || !isOwner(entry, session)) {
+            return false;
+        }
+        for (String token : session.getLockTokens()) {
+            if (entry.lock.getToken().equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the session belongs to the user who created a lock.
+     */
+    private static boolean isOwner(Entry entry, DavSession session) {
+        String userName = FSDavSession.getSecurityContext(session).getUserName();
+        return entry.userName == null ? userName == null : entry.userName.equals(userName);
+    }
+
+    /**
+     * Checks that a lock is refreshed or released by the user who created
+     * it, tokens being visible to anyone through lock discovery.
+     *
+     * @throws DavException with <code>403 Forbidden</code> otherwise
+     */
+    private static void checkOwner(Entry entry, DavSession session) throws DavException {
+        if (session == null || !isOwner(entry, session)) {
+            throw new DavException(DavServletResponse.SC_FORBIDDEN, "Lock owned by another user.");
+        }
+    }
+
+    private void remove(Entry entry) {
+        lockStripes(entry.key);
+        try {
+            if (!locksByPath.remove(entry.key, entry)) {
+                return;
+            }
+            locksByToken.remove(entry.lock.getToken());
+            for (String parent = getParentKey(entry.key); parent != null; parent = getParentKey(parent)) {
+                AtomicInteger count = locksBelow.get(parent);
+                // the count of the root is shared by all the stripes, it stays
+                if (count != null && count.decrementAndGet() <= 0 && !parent.equals("/")) {
+                    locksBelow.remove(parent);
+                }
+            }
+            wheel.cancel(entry);
+        } finally {
+            unlockStripes(entry.key);
+        }
+    }
+
+    private void expire() {
+        try {
+            long now = System.currentTimeMillis();
+            for (TimingWheel.Timeout timeout : wheel.advance(now)) {
+                Entry entry = (Entry) timeout;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Lock on " + entry.key + " expired");
+                }
+                remove(entry);
+            }
+        } catch (RuntimeException ex) {
+            LOG.warn("Lock expiry failed: " + ex);
+        }
+    }
+
+    /**
+     * Returns the timeout granted for the one asked by a client, in
+     * milliseconds.
+     */
+    private long getTimeout(long requested) {
+        if (requested == DavConstants.UNDEFINED_TIMEOUT || requested <= 0) {
+            return Math.min(defaultTimeout, maxTimeout);
+        }
+        return Math.min(requested, maxTimeout);
+    }
+
+    private static String getKey(DavResource resource) {
+        return FileStatusCache.getKey(getPath(resource));
+    }
+
+    private static Path getPath(DavResource resource) {
+        return ((FSDavResource) resource).getPath();
+    }
+
+    private static String getParentKey(String key) {
+        if (key.equals("/")) {
+            return null;
+        }
+        int slash = key.lastIndexOf('/');
+        return slash <= 0 ? "/" : key.substring(0, slash);
+    }
+
+    /**
+     * Changes below a top-level directory are serialized on its stripe,
+     * changes to the root on all the stripes.
+     */
+    private void lockStripes(String key) {
+        int stripe = getStripe(key);
+        if (stripe < 0) {
+            for (ReentrantLock lock : stripes) {
+                lock.lock();
+            }
+        } else {
+            stripes[stripe].lock();
+        }
+    }
+
+    private void unlockStripes(String key) {
+        int stripe = getStripe(key);
+        if (stripe < 0) {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        } else {
+            stripes[stripe].unlock();
+        }
+    }
+
+    private static int getStripe(String key) {
+        if (key.equals("/")) {
+            return -1;
+        }
+        int end = key.indexOf('/', 1);
+        String top = end < 0 ? key.substring(1) : key.substring(1, end);
+        return (top.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+}
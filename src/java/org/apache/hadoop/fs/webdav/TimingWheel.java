@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, keeping track of a large number of timeouts
+ * with constant cost to schedule, cancel or reschedule any of them and no
+ * scan of the pending ones when time advances.
+ * <p/>
+ * Time is counted in ticks. The first wheel has a slot for each of the next
+ * {@value #SLOTS} ticks, every following wheel has slots {@value #SLOTS}
+ * times as wide as the previous one. A timeout sits in the finest wheel that
+ * covers its deadline and moves down one wheel each time its slot comes
+ * round, until it expires from the first one. Timeouts beyond the last wheel
+ * are parked in it and placed again when their slot comes round.
+ * <p/>
+ * The wheel is synchronized, timeouts must not be shared between wheels.
+ */
+public class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    /**
+     * An element of the wheel, linked into the list of its slot. Subclasses
+     * carry whatever has to be done when it expires.
+     */
+    public static class Timeout {
+        private long deadline;
+        private Timeout prev;
+        private Timeout next;
+
+        /**
+         * Returns the tick this timeout expires at.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        boolean isScheduled() {
+            return next != null;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * @param tickMillis the length of a tick in milliseconds
+     * @param now the current time in milliseconds
+     */
+    public TimingWheel(long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.currentTick = now / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timeout head = new Timeout();
+                head.prev = head;
+                head.next = head;
+                wheels[level][slot] = head;
+            }
+        }
+    }
+
+    /**
+     * Schedules a timeout to expire at the given time, replacing its
+     * previous deadline if it is already scheduled. Deadlines are rounded
+     * up to the next tick, a timeout never expires early.
+     */
+    public synchronized void schedule(Timeout timeout, long deadlineMillis) {
+        if (timeout.isScheduled()) {
+            unlink(timeout);
+        } else {
+            size++;
+        }
+        timeout.deadline = (deadlineMillis + tickMillis - 1) / tickMillis;
+        insert(timeout);
+    }
+
+    /**
+     * Removes a timeout from the wheel.
+     *
+     * @return false if it was not scheduled
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if (!timeout.isScheduled()) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Moves the wheel forward to the given time.
+     *
+     * @return the timeouts that expired, no longer scheduled
+     */
+    public synchronized List<Timeout> advance(long nowMillis) {
+        List<Timeout> expired = new ArrayList<Timeout>();
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                Timeout head = wheels[level][slot];
+                while (head.next != head) {
+                    Timeout timeout = head.next;
+                    unlink(timeout);
+                    if (timeout.deadline <= currentTick) {
+                        expired.add(timeout);
+                        size--;
+                    } else {
+                        insert(timeout);
+                    }
+                }
+            }
+            Timeout head = wheels[0][(int) (currentTick & (SLOTS - 1))];
+            while (head.next != head) {
+                Timeout timeout = head.next;
+                unlink(timeout);
+                expired.add(timeout);
+                size--;
+            }
+        }
+        return expired;
+    }
+
+    private void insert(Timeout timeout) {
+        long tick = Math.max(timeout.deadline, currentTick + 1);
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+            // park it in the last slot the wheels can reach
+            tick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        Timeout head = wheels[level][slot];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+    }
+
+    private static void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+    }
+}
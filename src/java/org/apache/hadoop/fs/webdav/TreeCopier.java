@@ -0,0 +1,342 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Copies directory trees inside the gateway with a pool of worker threads
+ * shared by all the copies. Directories are listed and files copied
+ * concurrently; each copy is limited to a number of files in flight so that
+ * one large tree cannot take over the whole pool. Tasks never block waiting
+ * for each other, a copy queues its own files until one of its slots frees
+ * up.
+ */
+public class TreeCopier {
+
+    private static final Log LOG = LogFactory.getLog(TreeCopier.class);
+
+    /**
+     * Number of worker threads shared by all the copies.
+     */
+    public static final String THREADS_KEY = "hadoop.webdav.copy.threads";
+    public static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Maximum number of files of a single copy being copied at once.
+     */
+    public static final String FILES_PER_COPY_KEY = "hadoop.webdav.copy.files.per.copy";
+    public static final int DEFAULT_FILES_PER_COPY = 4;
+
+    /**
+     * Time in milliseconds after which a copy is cancelled, 0 for no limit.
+     */
+    public static final String TIMEOUT_KEY = "hadoop.webdav.copy.timeout";
+    public static final long DEFAULT_TIMEOUT = 0;
+
+    private final ExecutorService executor;
+    private final int filesPerCopy;
+    private final long timeout;
+    private final int bufferSize;
+
+    public TreeCopier(Configuration conf) {
+        int threads = Math.max(1, conf.getInt(THREADS_KEY, DEFAULT_THREADS));
+        this.filesPerCopy = Math.max(1, conf.getInt(FILES_PER_COPY_KEY, DEFAULT_FILES_PER_COPY));
+        this.timeout = conf.getLong(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+        this.bufferSize = conf.getInt("io.file.buffer.size", 4096);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                                                         60, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "webdav-copy-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /**
+     * Returns the time after which a copy should be cancelled, 0 for none.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Starts copying <code>src</code> to <code>dst</code>. A directory is
+     * copied with all its content unless <code>shallow</code> is set, in
+     * which case only the directory itself is created.
+     */
+    public Job start(FileSystem fs, FileStatus src, Path dst, boolean shallow) {
+        Job job = new Job(fs);
+        if (src.isDir()) {
+            job.submit(new DirectoryTask(job, src.getPath(), dst, shallow));
+        } else {
+            job.submitFile(src.getPath(), dst);
+        }
+        job.release();
+        return job;
+    }
+
+    /**
+     * A running copy. Failures of single paths do not stop the copy, they are
+     * collected and reported once everything else has been copied.
+     */
+    public class Job {
+        private final FileSystem fs;
+
+        /** Tasks submitted and not finished yet, plus one held by start() */
+        private int pending = 1;
+        private int runningFiles = 0;
+        private final LinkedList<Runnable> queuedFiles = new LinkedList<Runnable>();
+        private final Map<Path, IOException> failures = new LinkedHashMap<Path, IOException>();
+        private volatile boolean cancelled = false;
+
+        private final AtomicLong filesCopied = new AtomicLong();
+        private final AtomicLong bytesCopied = new AtomicLong();
+
+        Job(FileSystem fs) {
+            this.fs = fs;
+        }
+
+        private synchronized void submit(Runnable task) {
+            pending++;
+            executor.execute(task);
+        }
+
+        private void submitFile(Path src, Path dst) {
+            Runnable task = new FileTask(this, src, dst);
+            synchronized (this) {
+                pending++;
+                if (runningFiles < filesPerCopy) {
+                    runningFiles++;
+                } else {
+                    queuedFiles.add(task);
+                    return;
+                }
+            }
+            executor.execute(task);
+        }
+
+        private void fileDone() {
+            Runnable next = null;
+            synchronized (this) {
+                next = queuedFiles.poll();
+                if (next == null) {
+                    runningFiles--;
+                }
+            }
+            if (next != null) {
+                executor.execute(next);
+            }
+        }
+
+        private synchronized void release() {
+            pending--;
+            if (pending == 0) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void fail(Path path, IOException ex) {
+            failures.put(path, ex);
+        }
+
+        /**
+         * Stops the copy. Tasks that have not started are skipped and running
+         * file copies stop at their next buffer.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return pending == 0;
+        }
+
+        /**
+         * Waits for the copy to finish.
+         *
+         * @param millis the maximum time to wait, 0 to wait forever
+         * @return true if the copy has finished
+         */
+        public synchronized boolean await(long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (pending > 0) {
+                if (millis <= 0) {
+                    wait();
+                } else {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        return false;
+                    }
+                    wait(left);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the destination paths that could not be copied, with the
+         * cause of each failure.
+         */
+        public synchronized Map<Path, IOException> getFailures() {
+            return new LinkedHashMap<Path, IOException>(failures);
+        }
+
+        public long getFilesCopied() {
+            return filesCopied.get();
+        }
+
+        public long getBytesCopied() {
+            return bytesCopied.get();
+        }
+    }
+
+    private class DirectoryTask implements Runnable {
+        private final Job job;
+        private final Path src;
+        private final Path dst;
+        private final boolean shallow;
+
+        DirectoryTask(Job job, Path src, Path dst, boolean shallow) {
+            this.job = job;
+            this.src = src;
+            this.dst = dst;
+            this.shallow = shallow;
+        }
+
+        public void run() {
+            try {
+                if (job.isCancelled()) {
+                    return;
+                }
+                if (!job.fs.mkdirs(dst)) {
+                    throw new IOException("Unable to create directory " + dst);
+                }
+                if (shallow) {
+                    return;
+                }
+                FileStatus[] children = job.fs.listStatus(src);
+                if (children == null) {
+                    return;
+                }
+                for (FileStatus child : children) {
+                    Path childDst = new Path(dst, child.getPath().getName());
+                    if (child.isDir()) {
+                        job.submit(new DirectoryTask(job, child.getPath(), childDst, false));
+                    } else {
+                        job.submitFile(child.getPath(), childDst);
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.warn("Copy of " + src + " to " + dst + " failed: " + ex);
+                job.fail(dst, ex);
+            } catch (RuntimeException ex) {
+                LOG.warn("Copy of " + src + " to " + dst + " failed: " + ex);
+                job.fail(dst, new IOException(ex.toString()));
+            } finally {
+                job.release();
+            }
+        }
+    }
+
+    private class FileTask implements Runnable {
+        private final Job job;
+        private final Path src;
+        private final Path dst;
+
+        FileTask(Job job, Path src, Path dst) {
+            this.job = job;
+            this.src = src;
+            this.dst = dst;
+        }
+
+        public void run() {
+            try {
+                if (job.isCancelled()) {
+                    return;
+                }
+                copyFile();
+                job.filesCopied.incrementAndGet();
+            } catch (IOException ex) {
+                LOG.warn("Copy of " + src + " to " + dst + " failed: " + ex);
+                job.fail(dst, ex);
+            } catch (RuntimeException ex) {
+                LOG.warn("Copy of " + src + " to " + dst + " failed: " + ex);
+                job.fail(dst, new IOException(ex.toString()));
+            } finally {
+                job.fileDone();
+                job.release();
+            }
+        }
+
+        private void copyFile() throws IOException {
+            InputStream in = job.fs.open(src, bufferSize);
+            OutputStream out = null;
+            try {
+                out = job.fs.create(dst, true);
+                byte[] buf = new byte[bufferSize];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    if (job.isCancelled()) {
+                        throw new InterruptedIOException("Copy cancelled");
+                    }
+                    out.write(buf, 0, n);
+                    job.bytesCopied.addAndGet(n);
+                }
+                out.close();
+                out = null;
+            } finally {
+                IOUtils.closeStream(out);
+                IOUtils.closeStream(in);
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+
+/**
+ * Walks a tree for a <code>Depth: infinity</code> PROPFIND. Resources are
+ * written in document order as they are reached, while the directories
+ * following the current one are listed concurrently by a pool shared by
+ * all the walks.
+ * <p/>
+ * A walk is bounded in number of resources, depth and time. Once over
+ * budget it stops and reports <code>507 Insufficient Storage</code> for the
+ * root of the walk, the responses written so far being already sent.
+ */
+public class TreeWalker {
+
+    private static final Log LOG = LogFactory.getLog(TreeWalker.class);
+
+    /**
+     * Whether <code>Depth: infinity</code> is accepted at all; if not, such
+     * requests get a <code>403</code> asking for a finite depth.
+     */
+    public static final String INFINITY_ENABLED_KEY = "hadoop.webdav.propfind.infinity.enabled";
+
+    /**
+     * Number of listing threads shared by all the walks.
+     */
+    public static final String THREADS_KEY = "hadoop.webdav.propfind.threads";
+    public static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Number of directories a single walk lists ahead.
+     */
+    public static final String WINDOW_KEY = "hadoop.webdav.propfind.window";
+    public static final int DEFAULT_WINDOW = 8;
+
+    /**
+     * Most resources reported by a single walk.
+     */
+    public static final String MAX_NODES_KEY = "hadoop.webdav.propfind.max.nodes";
+    public static final int DEFAULT_MAX_NODES = 100000;
+
+    /**
+     * Deepest level a walk descends to, below the requested resource.
+     */
+    public static final String MAX_DEPTH_KEY = "hadoop.webdav.propfind.max.depth";
+    public static final int DEFAULT_MAX_DEPTH = 64;
+
+    /**
+     * Longest time a walk may take, in milliseconds.
+     */
+    public static final String MAX_TIME_KEY = "hadoop.webdav.propfind.max.time";
+    public static final long DEFAULT_MAX_TIME = 60 * 1000L;
+
+    private final boolean infinityEnabled;
+    private final ExecutorService executor;
+    private final int window;
+    private final int maxNodes;
+    private final int maxDepth;
+    private final long maxTime;
+
+    public TreeWalker(Configuration conf) {
+        this.infinityEnabled = conf.getBoolean(INFINITY_ENABLED_KEY, true);
+        this.window = conf.getInt(WINDOW_KEY, DEFAULT_WINDOW);
+        this.maxNodes = conf.getInt(MAX_NODES_KEY, DEFAULT_MAX_NODES);
+        this.maxDepth = conf.getInt(MAX_DEPTH_KEY, DEFAULT_MAX_DEPTH);
+        this.maxTime = conf.getLong(MAX_TIME_KEY, DEFAULT_MAX_TIME);
+        int threads = Math.max(1, conf.getInt(THREADS_KEY, DEFAULT_THREADS));
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                                               60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "webdav-propfind-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    public boolean isInfinityEnabled() {
+        return infinityEnabled;
+    }
+
+    /**
+     * Raised when a walk goes over one of its limits.
+     */
+    private static class BudgetExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Writes the properties of a resource and of everything below it.
+     */
+    public void walk(FSDavResource root,
+                     DavPropertyNameSet propNameSet,
+                     int propFindType,
+                     MultiStatusWriter writer) throws IOException {
+        Walk walk = new Walk(propNameSet, propFindType, writer);
+        try {
+            walk.visit(root, 0);
+        } catch (BudgetExceededException ex) {
+            LOG.info("PROPFIND of " + root.getResourcePath() + " stopped: " + ex.getMessage());
+            writer.addResponse(new MultiStatusResponse(root.getHref(),
+                                                       DavServletResponse.SC_INSUFFICIENT_SPACE_ON_RESOURCE,
+                                                       ex.getMessage()));
+        } finally {
+            walk.cancel();
+        }
+    }
+
+    /**
+     * The state of a single walk.
+     */
+    private class Walk {
+        private final DavPropertyNameSet propNameSet;
+        private final int propFindType;
+        private final MultiStatusWriter writer;
+        private final long deadline;
+        private int nodes = 0;
+
+        /** The listings started ahead, by path */
+        private final Map<String, Future<FileStatus[]>> listings
+            = new HashMap<String, Future<FileStatus[]>>();
+
+        Walk(DavPropertyNameSet propNameSet, int propFindType, MultiStatusWriter writer) {
+            this.propNameSet = propNameSet;
+            this.propFindType = propFindType;
+            this.writer = writer;
+            this.deadline = maxTime > 0 ? System.currentTimeMillis() + maxTime : Long.MAX_VALUE;
+        }
+
+        void visit(DavResource resource, int depth) throws IOException {
+            if (maxNodes > 0 && ++nodes > maxNodes) {
+                throw new BudgetExceededException("More than " + maxNodes + " resources.");
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new BudgetExceededException("Listing took more than " + maxTime + " ms.");
+            }
+            writer.addResponse(MultiStatusWriter.createResponse(resource, propNameSet, propFindType));
+            if (!resource.isCollection()) {
+                return;
+            }
+            FSDavResource collection = (FSDavResource) resource;
+            FileStatus[] statuses = list(collection);
+            if (maxDepth >= 0 && depth >= maxDepth && statuses.length > 0) {
+                throw new BudgetExceededException("Deeper than " + maxDepth + " levels.");
+            }
+            List<String> started = listAhead(collection, statuses);
+            DavResourceIterator members = collection.getMembers(statuses);
+            while (members.hasNext()) {
+                visit(members.nextResource(), depth + 1);
+            }
+            // members the iterator skipped are never visited
+            for (String key : started) {
+                Future<FileStatus[]> listing = listings.remove(key);
+                if (listing != null) {
+                    listing.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * Returns the listing of a collection, started ahead or not.
+         */
+        private FileStatus[] list(FSDavResource collection) throws IOException {
+            Future<FileStatus[]> listing = listings.remove(FileStatusCache.getKey(collection.getPath()));
+            if (listing == null) {
+                return collection.listMembers();
+            }
+            try {
+                return listing.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                listing.cancel(false);
+                throw new BudgetExceededException("Listing took more than " + maxTime + " ms.");
+            } catch (InterruptedException ex) {
+                listing.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while listing " + collection.getPath());
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+
+        /**
+         * Starts listing the subdirectories of a collection, as long as the
+         * walk has room for more listings ahead.
+         *
+         * @return the keys of the listings started
+         */
+        private List<String> listAhead(final FSDavResource collection, FileStatus[] statuses) {
+            List<String> started = new ArrayList<String>();
+            for (FileStatus status : statuses) {
+                if (listings.size() >= window) {
+                    break;
+                }
+                if (!status.isDir()) {
+                    continue;
+                }
+                final Path p = status.getPath();
+                String key = FileStatusCache.getKey(p);
+                listings.put(key, executor.submit(new Callable<FileStatus[]>() {
+                    public FileStatus[] call() throws IOException {
+                        FileStatus[] members = collection.getFileSystem().listStatus(p);
+                        return members == null ? new FileStatus[0] : members;
+                    }
+                }));
+                started.add(key);
+            }
+            return started;
+        }
+
+        /**
+         * Drops the listings still pending. Those already running are left
+         * to finish and their result discarded: interrupting a thread inside
+         * an IPC call closes the connection shared with other requests.
+         */
+        void cancel() {
+            for (Future<FileStatus[]> listing : listings.values()) {
+                listing.cancel(false);
+            }
+            listings.clear();
+        }
+    }
+}
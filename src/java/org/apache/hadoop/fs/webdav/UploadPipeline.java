@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Copies an upload to HDFS with two buffers, so that the request thread
+ * receives the next buffer from the client while a writer thread pushes the
+ * previous one into the HDFS write pipeline. When all the writer threads are
+ * busy the upload is copied inline, as before.
+ */
+public class UploadPipeline {
+
+    /**
+     * Maximum number of uploads being written concurrently by writer
+     * threads, 0 disables the pipeline.
+     */
+    public static final String THREADS_KEY = "hadoop.webdav.upload.threads";
+    public static final int DEFAULT_THREADS = 32;
+
+    private static final int BUFFERS = 2;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * A buffer handed between the two threads. A negative length marks the
+     * end of the upload.
+     */
+    private static class Buffer {
+        final byte[] data;
+        int length;
+
+        Buffer(int size) {
+            data = new byte[size];
+        }
+    }
+
+    public UploadPipeline(Configuration conf) {
+        int threads = conf.getInt(THREADS_KEY, DEFAULT_THREADS);
+        if (threads > 0) {
+            executor = new ThreadPoolExecutor(0, threads,
+                                              60, TimeUnit.SECONDS,
+                                              new SynchronousQueue<Runnable>(),
+                                              new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "webdav-upload-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Copies <code>in</code> to <code>out</code> until the end of the input.
+     * Neither stream is closed. When this returns, normally or not, the
+     * writer thread is done with <code>out</code>, so it can be closed.
+     *
+     * @return the number of bytes copied
+     */
+    public long copy(InputStream in, final OutputStream out, int bufferSize) throws IOException {
+        final BlockingQueue<Buffer> free = new ArrayBlockingQueue<Buffer>(BUFFERS);
+        final BlockingQueue<Buffer> filled = new ArrayBlockingQueue<Buffer>(BUFFERS);
+        final AtomicBoolean aborted = new AtomicBoolean();
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new Buffer(bufferSize));
+        }
+
+        Future<Object> writer = null;
+        if (executor != null) {
+            try {
+                writer = executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        while (true) {
+                            Buffer buffer = filled.take();
+                            if (buffer.length < 0) {
+                                return null;
+                            }
+                            if (!aborted.get()) {
+                                out.write(buffer.data, 0, buffer.length);
+                            }
+                            free.put(buffer);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                writer = null;
+            }
+        }
+        if (writer == null) {
+            return copyInline(in, out, bufferSize);
+        }
+
+        boolean done = false;
+        long total = 0;
+        try {
+            while (true) {
+                Buffer buffer = free.poll(1, TimeUnit.SECONDS);
+                if (buffer == null) {
+                    if (writer.isDone()) {
+                        // the writer failed, rethrow its error
+                        await(writer);
+                        throw new IOException("Upload writer stopped unexpectedly");
+                    }
+                    continue;
+                }
+                buffer.length = fill(in, buffer.data);
+                filled.put(buffer);
+                if (buffer.length < 0) {
+                    break;
+                }
+                total += buffer.length;
+            }
+            await(writer);
+            done = true;
+            return total;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while uploading");
+        } finally {
+            if (!done) {
+                aborted.set(true);
+                stop(writer, filled);
+            }
+        }
+    }
+
+    /**
+     * Ends the writer of a failed upload and waits for it to return. The
+     * writer is never interrupted: on Hadoop 0.20 interrupting a thread
+     * inside an IPC call closes the connection shared with other clients.
+     */
+    private static void stop(Future<Object> writer, BlockingQueue<Buffer> filled) {
+        Buffer end = new Buffer(0);
+        end.length = -1;
+        boolean interrupted = false;
+        try {
+            while (!writer.isDone()) {
+                try {
+                    if (filled.offer(end, 1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            while (true) {
+                try {
+                    writer.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    // the failure of the upload is already being reported
+                    break;
+                } catch (CancellationException ex) {
+                    break;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long copyInline(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        byte[] buf = new byte[bufferSize];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Reads until the buffer is full or the input ends.
+     *
+     * @return the number of bytes read, or -1 at the end of the input
+     */
+    private static int fill(InputStream in, byte[] buf) throws IOException {
+        int count = 0;
+        while (count < buf.length) {
+            int n = in.read(buf, count, buf.length - count);
+            if (n < 0) {
+                return count == 0 ? -1 : count;
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    private static void await(Future<Object> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException("Upload writer failed: " + cause);
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+}
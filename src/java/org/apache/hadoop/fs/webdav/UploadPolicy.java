@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.io.InputContext;
+
+/**
+ * Decides the buffer size, block size and replication used to write an
+ * uploaded file. Values are taken, in order of precedence, from the request
+ * headers, from the longest configured path prefix matching the destination,
+ * and from the filesystem defaults.
+ * <p/>
+ * Values sent by clients are bounded by {@link #MAX_BUFFER_SIZE_KEY},
+ * {@link #MAX_BLOCK_SIZE_KEY} and <code>dfs.replication.max</code>; the
+ * request is refused with <code>400</code> above them.
+ * <p/>
+ * Path prefixes are listed in {@link #PREFIXES_KEY}; the settings of prefix
+ * <code>/ingest</code> are read from
+ * <code>hadoop.webdav.upload.prefix./ingest.blocksize</code>,
+ * <code>.replication</code> and <code>.buffersize</code>.
+ */
+public class UploadPolicy {
+
+    public static final String HEADER_BUFFER_SIZE = "X-Hadoop-Buffer-Size";
+    public static final String HEADER_BLOCK_SIZE = "X-Hadoop-Block-Size";
+    public static final String HEADER_REPLICATION = "X-Hadoop-Replication";
+
+    /**
+     * Comma separated list of path prefixes having their own settings.
+     */
+    public static final String PREFIXES_KEY = "hadoop.webdav.upload.prefixes";
+    public static final String PREFIX_KEY = "hadoop.webdav.upload.prefix.";
+
+    /**
+     * Largest buffer size a client can ask for. Each upload allocates a few
+     * buffers of this size on the heap.
+     */
+    public static final String MAX_BUFFER_SIZE_KEY = "hadoop.webdav.upload.max.buffersize";
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Largest block size a client can ask for.
+     */
+    public static final String MAX_BLOCK_SIZE_KEY = "hadoop.webdav.upload.max.blocksize";
+    public static final long DEFAULT_MAX_BLOCK_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * Largest replication a client can ask for, as enforced by the NameNode.
+     */
+    public static final String MAX_REPLICATION_KEY = "dfs.replication.max";
+    public static final int DEFAULT_MAX_REPLICATION = 512;
+
+    private final int defaultBufferSize;
+    private final int maxBufferSize;
+    private final long maxBlockSize;
+    private final short maxReplication;
+    private final List<Rule> rules = new ArrayList<Rule>();
+
+    /**
+     * The settings of one path prefix, 0 meaning unset.
+     */
+    private static class Rule {
+        final String prefix;
+        final int bufferSize;
+        final long blockSize;
+        final short replication;
+
+        Rule(String prefix, int bufferSize, long blockSize, short replication) {
+            this.prefix = prefix;
+            this.bufferSize = bufferSize;
+            this.blockSize = blockSize;
+            this.replication = replication;
+        }
+
+        boolean matches(String path) {
+            return path.equals(prefix)
+                || (path.startsWith(prefix) && (prefix.endsWith("/") || path.charAt(prefix.length()) == '/'));
+        }
+    }
+
+    /**
+     * The settings resolved for one upload.
+     */
+    public static class Settings {
+        private final int bufferSize;
+        private final long blockSize;
+        private final short replication;
+
+        Settings(int bufferSize, long blockSize, short replication) {
+            this.bufferSize = bufferSize;
+            this.blockSize = blockSize;
+            this.replication = replication;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public long getBlockSize() {
+            return blockSize;
+        }
+
+        public short getReplication() {
+            return replication;
+        }
+    }
+
+    public UploadPolicy(Configuration conf) {
+        this.defaultBufferSize = conf.getInt("io.file.buffer.size", 4096);
+        this.maxBufferSize = conf.getInt(MAX_BUFFER_SIZE_KEY, DEFAULT_MAX_BUFFER_SIZE);
+        this.maxBlockSize = conf.getLong(MAX_BLOCK_SIZE_KEY, DEFAULT_MAX_BLOCK_SIZE);
+        this.maxReplication = (short) Math.min(Short.MAX_VALUE,
+                                               conf.getInt(MAX_REPLICATION_KEY, DEFAULT_MAX_REPLICATION));
+        String[] prefixes = conf.getStrings(PREFIXES_KEY);
+        if (prefixes != null) {
+            for (String prefix : prefixes) {
+                prefix = prefix.trim();
+                if (prefix.length() == 0) {
+                    continue;
+                }
+                String key = PREFIX_KEY + prefix + ".";
+                rules.add(new Rule(prefix,
+                                   conf.getInt(key + "buffersize", 0),
+                                   conf.getLong(key + "blocksize", 0),
+                                   (short) conf.getInt(key + "replication", 0)));
+            }
+        }
+    }
+
+    private Rule findRule(Path path) {
+        String key = FileStatusCache.getKey(path);
+        Rule found = null;
+        for (Rule rule : rules) {
+            if (rule.matches(key) && (found == null || rule.prefix.length() > found.prefix.length())) {
+                found = rule;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the settings to use for writing the given path.
+     *
+     * @throws DavException if a header holds an invalid value
+     */
+    public Settings getSettings(FileSystem fs, Path path, InputContext context) throws DavException {
+        int bufferSize = defaultBufferSize;
+        long blockSize = fs.getDefaultBlockSize();
+        short replication = fs.getDefaultReplication();
+
+        Rule rule = findRule(path);
+        if (rule != null) {
+            if (rule.bufferSize > 0) {
+                bufferSize = rule.bufferSize;
+            }
+            if (rule.blockSize > 0) {
+                blockSize = rule.blockSize;
+            }
+            if (rule.replication > 0) {
+                replication = rule.replication;
+            }
+        }
+
+        bufferSize = (int) getHeader(context, HEADER_BUFFER_SIZE, bufferSize, maxBufferSize);
+        blockSize = getHeader(context, HEADER_BLOCK_SIZE, blockSize, maxBlockSize);
+        replication = (short) getHeader(context, HEADER_REPLICATION, replication, maxReplication);
+        return new Settings(bufferSize, blockSize, replication);
+    }
+
+    private static long getHeader(InputContext context,
+                                  String name,
+                                  long defaultValue,
+                                  long maxValue) throws DavException {
+        String value = context.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed <= 0 || parsed > maxValue) {
+                throw new DavException(DavServletResponse.SC_BAD_REQUEST,
+                                       name + " out of range: " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException ex) {
+            throw new DavException(DavServletResponse.SC_BAD_REQUEST,
+                                   "Invalid " + name + ": " + value);
+        }
+    }
+}
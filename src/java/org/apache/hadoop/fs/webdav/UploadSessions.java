@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+
+/**
+ * Keeps track of the files being uploaded in several ranged PUT requests,
+ * so that clients can ask how many bytes have been committed and resume a
+ * dropped transfer from there. Only one request at a time may write to an
+ * upload. Uploads that see no request for a while are forgotten; the bytes
+ * already written stay in the file.
+ */
+public class UploadSessions {
+
+    /**
+     * Time in milliseconds after which an idle upload is forgotten.
+     */
+    public static final String TIMEOUT_KEY = "hadoop.webdav.upload.session.timeout";
+    public static final long DEFAULT_TIMEOUT = 24 * 60 * 60 * 1000L;
+
+    private final long timeout;
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+
+    /**
+     * An upload in progress.
+     */
+    public static class Session {
+        private final String key;
+        private long total = -1;
+        private long committed = -1;
+        private boolean busy = false;
+        private long lastAccess;
+
+        Session(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the complete length of the file, or -1 if not known yet.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the number of bytes written to the file, or -1 if the
+         * file has to be looked at.
+         */
+        public long getCommitted() {
+            return committed;
+        }
+    }
+
+    public UploadSessions(Configuration conf) {
+        this.timeout = conf.getLong(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Starts writing to the upload of the given path, creating it if needed.
+     * {@link #release} must be called once the request is done.
+     *
+     * @param total the complete length sent by the client, or -1
+     * @throws DavException if another request is writing to the same upload,
+     *         or if the complete length does not match the one first sent
+     */
+    public synchronized Session acquire(Path path, long total) throws DavException {
+        expire();
+        String key = FileStatusCache.getKey(path);
+        Session session = sessions.get(key);
+        if (session == null) {
+            session = new Session(key);
+            sessions.put(key, session);
+        }
+        if (session.busy) {
+            throw new DavException(DavServletResponse.SC_CONFLICT,
+                                   "Upload of " + key + " is already in progress.");
+        }
+        if (total >= 0) {
+            if (session.total >= 0 && session.total != total) {
+                throw new DavException(DavServletResponse.SC_BAD_REQUEST,
+                                       "Upload of " + key + " was started with length " + session.total);
+            }
+            session.total = total;
+        }
+        session.busy = true;
+        session.lastAccess = System.currentTimeMillis();
+        return session;
+    }
+
+    /**
+     * Ends a request writing to an upload. The upload is forgotten once all
+     * its bytes have been committed.
+     *
+     * @param committed the number of bytes now in the file, or -1 if unknown
+     */
+    public synchronized void release(Session session, long committed) {
+        session.busy = false;
+        session.committed = committed;
+        session.lastAccess = System.currentTimeMillis();
+        if (session.total >= 0 && committed >= session.total) {
+            sessions.remove(session.key);
+        }
+    }
+
+    /**
+     * Returns the number of bytes committed to the upload of the given
+     * path, or -1 if there is no such upload or the file has to be looked at.
+     */
+    public synchronized long getCommitted(Path path) {
+        Session session = sessions.get(FileStatusCache.getKey(path));
+        return session == null ? -1 : session.committed;
+    }
+
+    /**
+     * Forgets the upload of the given path, to be called when the file is
+     * replaced or deleted by other means.
+     */
+    public synchronized void remove(Path path) {
+        Session session = sessions.get(FileStatusCache.getKey(path));
+        if (session != null && !session.busy) {
+            sessions.remove(session.key);
+        }
+    }
+
+    private void expire() {
+        if (timeout <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();) {
+            Session session = it.next();
+            if (!session.busy && now - session.lastAccess > timeout) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -33,17 +33,7 @@ public class UtilsHelper {
     public static CurrentUserPrivilegeSetProperty getCurrentUserPrivilegeSetProperty(FileStatus fstat, UnixUserGroupInformation ugi) {
 
         List<Privilege> list = new ArrayList<Privilege>();
-
-        if (ugi.getUserName().equals(fstat.getOwner())) {
-            FsAction action = fstat.getPermission().getUserAction();
-            extractPrivileges(list, action);
-        } else if (groupExists(ugi.getGroupNames(), fstat.getGroup())) {
-            FsAction action = fstat.getPermission().getGroupAction();
-            extractPrivileges(list, action);
-        } else {
-            FsAction action = fstat.getPermission().getOtherAction();
-            extractPrivileges(list, action);
-        }
+        extractPrivileges(list, getAction(fstat, ugi));
 
         if (list.size() > 0) {
             Privilege[] allPrivs = list.toArray(new Privilege[0]);
@@ -53,6 +43,25 @@ public class UtilsHelper {
         return new CurrentUserPrivilegeSetProperty(new Privilege[0]);
     }
 
+    /**
+     * Tells whether the permission of a file lets the given user write it.
+     */
+    public static boolean canWrite(FileStatus fstat, UnixUserGroupInformation ugi) {
+        return getAction(fstat, ugi).implies(FsAction.WRITE);
+    }
+
+    /**
+     * Returns the actions the permission of a file grants the given user.
+     */
+    private static FsAction getAction(FileStatus fstat, UnixUserGroupInformation ugi) {
+        if (ugi.getUserName().equals(fstat.getOwner())) {
+            return fstat.getPermission().getUserAction();
+        } else if (groupExists(ugi.getGroupNames(), fstat.getGroup())) {
+            return fstat.getPermission().getGroupAction();
+        }
+        return fstat.getPermission().getOtherAction();
+    }
+
     private static void extractPrivileges(List<Privilege> list, FsAction action) {
         if (action.implies(FsAction.READ)) {
             list.add(Privilege.PRIVILEGE_READ);
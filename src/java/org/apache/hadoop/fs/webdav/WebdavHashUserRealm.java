@@ -18,50 +18,145 @@
 
 package org.apache.hadoop.fs.webdav;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.StringUtils;
 import org.mortbay.jetty.security.HashUserRealm;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.io.IOException;
+import java.io.InputStream;
 
 
+/**
+ * A user realm read from a properties file, which also tells the roles of
+ * each user. The roles are looked up in an index by user built at every
+ * load, together with the identity derived from them. Jetty checks the
+ * file every <code>refreshInterval</code> seconds and loads it again when
+ * it changes.
+ * <p/>
+ * The file is parsed before the current accounts are dropped, so one that
+ * cannot be read leaves them in place. Loading happens under the lock
+ * Jetty takes to authenticate, and the index is replaced in one step, so
+ * requests see either the old or the new accounts, never a mix.
+ */
 public class WebdavHashUserRealm extends HashUserRealm {
 
+    private static final Log LOG = LogFactory.getLog(WebdavHashUserRealm.class);
+
+    /**
+     * Seconds between two checks of the accounts file, 0 to never reload.
+     */
+    public static final int DEFAULT_REFRESH_INTERVAL = 30;
+
+    /**
+     * The roles and identities of the users, replaced as a whole on reload.
+     */
+    private static class Index {
+        final Map<String, List<String>> roles;
+        final ConcurrentMap<String, SecurityContext> contexts
+            = new ConcurrentHashMap<String, SecurityContext>();
+
+        Index(Map<String, List<String>> roles) {
+            this.roles = roles;
+        }
+    }
+
+    private volatile Index index = new Index(Collections.<String, List<String>>emptyMap());
+
     public WebdavHashUserRealm() {
         super();
+        setRefreshInterval(DEFAULT_REFRESH_INTERVAL);
     }
 
     public WebdavHashUserRealm(String name, String config) throws IOException {
-        super(name, config);
+        super(name);
+        setRefreshInterval(DEFAULT_REFRESH_INTERVAL);
+        super.setConfig(config);
     }
 
+    /**
+     * Returns the roles of the given user, empty if it has none.
+     */
     public List<String> getUserRoles(String userName) {
-        List<String> list = new ArrayList<String>();
-
-        if (userName != null && !"".equals(userName)) {
-            Set<String> roleNames = this._roles.keySet();
-            for (String role : roleNames) {
-                HashSet userHashSet = (HashSet) this._roles.get(role);
-                Iterator iterator = userHashSet.iterator();
-                while (iterator.hasNext()) {
-                    String user = (String) iterator.next();
-                    if (userName.equals(user)) {
-                        list.add(role);
-                    }
-                }
+        if (userName == null) {
+            return Collections.emptyList();
+        }
+        List<String> roles = index.roles.get(userName);
+        return roles == null ? Collections.<String>emptyList() : roles;
+    }
 
+    /**
+     * Returns the identity requests of the given user are served with. It
+     * is built once per user and kept until the accounts are reloaded.
+     */
+    public SecurityContext getSecurityContext(String userName) {
+        Index current = index;
+        SecurityContext context = current.contexts.get(userName);
+        if (context == null) {
+            List<String> roles = current.roles.get(userName);
+            context = new SecurityContext(userName, roles);
+            SecurityContext existing = current.contexts.putIfAbsent(userName, context);
+            if (existing != null) {
+                context = existing;
             }
         }
-
-        return list;
+        return context;
     }
 
     public void setConfig(String config) {
         try {
             super.setConfig(config);
-            this.loadConfig();
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.warn(StringUtils.stringifyException(e));
         }
     }
-}
 
+    /**
+     * Reads the accounts file, made of <code>user: password[,role ...]</code>
+     * lines, and builds the index of the roles along with the accounts.
+     */
+    @Override
+    protected void loadConfig() throws IOException {
+        Properties accounts = new Properties();
+        InputStream in = getConfigResource().getInputStream();
+        try {
+            accounts.load(in);
+        } finally {
+            in.close();
+        }
+        synchronized (this) {
+            clear();
+            Map<String, List<String>> roles = new HashMap<String, List<String>>();
+            for (Map.Entry<Object, Object> entry : accounts.entrySet()) {
+                String userName = entry.getKey().toString().trim();
+                String credentials = entry.getValue().toString().trim();
+                String userRoles = null;
+                int comma = credentials.indexOf(',');
+                if (comma > 0) {
+                    userRoles = credentials.substring(comma + 1).trim();
+                    credentials = credentials.substring(0, comma).trim();
+                }
+                if (userName.length() == 0 || credentials.length() == 0) {
+                    continue;
+                }
+                put(userName, credentials);
+                if (userRoles == null) {
+                    continue;
+                }
+                List<String> list = new ArrayList<String>(2);
+                StringTokenizer tokens = new StringTokenizer(userRoles, ", ");
+                while (tokens.hasMoreTokens()) {
+                    String role = tokens.nextToken();
+                    addUserToRole(userName, role);
+                    list.add(role);
+                }
+                roles.put(userName, Collections.unmodifiableList(list));
+            }
+            index = new Index(roles);
+        }
+        LOG.info("Loaded " + accounts.size() + " accounts from " + getConfig());
+    }
+}
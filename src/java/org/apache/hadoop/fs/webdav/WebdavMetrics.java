@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The metrics of the gateway: requests and latencies per WebDAV method,
+ * bytes transferred, requests in flight and filesystem calls. Everything is
+ * recorded with atomic counters, without locking. The metrics are published
+ * over JMX under the <code>hadoop.webdav</code> domain, and as plain text by
+ * {@link MetricsServlet}.
+ */
+public class WebdavMetrics implements WebdavMetricsMBean {
+
+    private static final Log LOG = LogFactory.getLog(WebdavMetrics.class);
+
+    public static final String ENABLED_KEY = "hadoop.webdav.metrics.enabled";
+
+    private static final String[] METHODS = {
+        "OPTIONS", "GET", "HEAD", "POST", "PUT", "DELETE", "PROPFIND", "PROPPATCH",
+        "MKCOL", "COPY", "MOVE", "LOCK", "UNLOCK"
+    };
+    private static final String OTHER = "OTHER";
+
+    /**
+     * Upper bounds of the latency buckets written, in microseconds: from
+     * 127us to 67s, doubling. Each is the largest value of a histogram
+     * bucket, so the counts are exact.
+     */
+    private static final long[] LATENCY_BOUNDS = new long[20];
+    static {
+        for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+            LATENCY_BOUNDS[i] = (1L << (i + 7)) - 1;
+        }
+    }
+
+    private static volatile WebdavMetrics instance;
+
+    private final long startTime = System.currentTimeMillis();
+    private final Map<String, MethodMetrics> methods;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    final AtomicLong getFileStatusCalls = new AtomicLong();
+    final AtomicLong listStatusCalls = new AtomicLong();
+    final AtomicLong openCalls = new AtomicLong();
+    final AtomicLong createCalls = new AtomicLong();
+
+    private WebdavMetrics() {
+        Map<String, MethodMetrics> map = new LinkedHashMap<String, MethodMetrics>();
+        for (String method : METHODS) {
+            map.put(method, new MethodMetrics(method));
+        }
+        map.put(OTHER, new MethodMetrics(OTHER));
+        this.methods = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Creates the metrics of this process and registers them with JMX,
+     * unless disabled in <code>conf</code>. Only the first call has any
+     * effect.
+     */
+    public static synchronized WebdavMetrics init(Configuration conf) {
+        if (instance == null && conf.getBoolean(ENABLED_KEY, true)) {
+            instance = new WebdavMetrics();
+            instance.register();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the metrics of this process, or null if they are disabled.
+     */
+    public static WebdavMetrics getInstance() {
+        return instance;
+    }
+
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName("hadoop.webdav:type=Metrics"));
+            for (MethodMetrics method : methods.values()) {
+                server.registerMBean(method, new ObjectName("hadoop.webdav:type=Method,name=" + method.getMethod()));
+            }
+        } catch (JMException ex) {
+            LOG.warn("Unable to register metrics with JMX: " + ex);
+        }
+    }
+
+    /**
+     * To be called when a request starts being served.
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * To be called once a request has been served.
+     */
+    public void requestFinished(String method, long micros, int status, long bytes) {
+        inFlight.decrementAndGet();
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            metrics = methods.get(OTHER);
+        }
+        metrics.record(micros, status);
+        bytesOut.addAndGet(bytes);
+    }
+
+    /**
+     * Counts bytes received from clients.
+     */
+    public void addBytesIn(long bytes) {
+        bytesIn.addAndGet(bytes);
+    }
+
+    public long getRequests() {
+        long requests = 0;
+        for (MethodMetrics metrics : methods.values()) {
+            requests += metrics.getRequests();
+        }
+        return requests;
+    }
+
+    public int getRequestsInFlight() {
+        return inFlight.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getGetFileStatusCalls() {
+        return getFileStatusCalls.get();
+    }
+
+    public long getListStatusCalls() {
+        return listStatusCalls.get();
+    }
+
+    public long getOpenCalls() {
+        return openCalls.get();
+    }
+
+    public long getCreateCalls() {
+        return createCalls.get();
+    }
+
+    /**
+     * Writes all the metrics as <code>name{labels} value</code> lines.
+     * Latencies are in microseconds, rates are averages since startup. The
+     * latencies of each method are written as cumulative bucket counts, so
+     * that percentiles can be computed over any window from two scrapes.
+     */
+    public void write(PrintWriter out) {
+        double uptime = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        long requests = getRequests();
+        out.println("webdav_uptime_seconds " + (long) uptime);
+        out.println("webdav_requests_in_flight " + getRequestsInFlight());
+        out.println("webdav_bytes_in " + getBytesIn());
+        out.println("webdav_bytes_out " + getBytesOut());
+        for (MethodMetrics metrics : methods.values()) {
+            String label = "{method=\"" + metrics.getMethod() + "\"}";
+            out.println("webdav_requests" + label + " " + metrics.getRequests());
+            out.println("webdav_requests_per_second" + label + " " + metrics.getRequests() / uptime);
+            out.println("webdav_server_errors" + label + " " + metrics.getServerErrors());
+            out.println("webdav_latency_mean_us" + label + " " + metrics.getMeanLatency());
+            writeLatency(out, metrics);
+        }
+        writeCalls(out, "getFileStatus", getGetFileStatusCalls(), requests);
+        writeCalls(out, "listStatus", getListStatusCalls(), requests);
+        writeCalls(out, "open", getOpenCalls(), requests);
+        writeCalls(out, "create", getCreateCalls(), requests);
+        out.flush();
+    }
+
+    private static void writeLatency(PrintWriter out, MethodMetrics metrics) {
+        LatencyHistogram latency = metrics.getLatency();
+        // read first, so that no bucket exceeds the total
+        long count = latency.getCount();
+        long sum = latency.getSum();
+        long[] counts = latency.getCumulativeCounts(LATENCY_BOUNDS);
+        String prefix = "webdav_latency_us_bucket{method=\"" + metrics.getMethod() + "\",le=";
+        for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+            out.println(prefix + "\"" + LATENCY_BOUNDS[i] + "\"} " + Math.min(counts[i], count));
+        }
+        out.println(prefix + "\"+Inf\"} " + count);
+        String label = "{method=\"" + metrics.getMethod() + "\"}";
+        out.println("webdav_latency_us_sum" + label + " " + sum);
+        out.println("webdav_latency_us_count" + label + " " + count);
+    }
+
+    private static void writeCalls(PrintWriter out, String op, long calls, long requests) {
+        String label = "{op=\"" + op + "\"}";
+        out.println("webdav_fs_calls" + label + " " + calls);
+        out.println("webdav_fs_calls_per_request" + label + " " + (requests == 0 ? 0 : (double) calls / requests));
+    }
+}
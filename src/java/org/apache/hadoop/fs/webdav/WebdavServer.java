@@ -25,6 +25,10 @@ import org.apache.hadoop.conf.Configuration;
 import org.mortbay.jetty.nio.SelectChannelConnector;
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Server;
+import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.ServletHolder;
+import org.mortbay.thread.QueuedThreadPool;
+import org.mortbay.thread.ThreadPool;
 import org.mortbay.xml.XmlConfiguration;
 import java.io.FileInputStream;
 
@@ -35,6 +39,8 @@ public class WebdavServer {
     public static String WEB_APP_CONTEXT = "webAppContext";
 
     private Server webServer;
+    private SelectChannelConnector connector;
+    private Server metricsServer;
 
     public WebdavServer(String bindAddress, int port) throws Exception {
         LOG.info("Initializing webdav server");
@@ -43,16 +49,60 @@ public class WebdavServer {
         XmlConfiguration configuration = new XmlConfiguration(new FileInputStream("conf/jetty.xml")); 
         configuration.configure(webServer);
 
-        Connector connector=new SelectChannelConnector();
+        connector=new SelectChannelConnector();
         connector.setPort(port);
         connector.setHost(bindAddress);
         webServer.setConnectors(new Connector[]{connector});
     }
 
+    /**
+     * Returns the connector serving WebDAV requests, to be tuned before the
+     * server is started.
+     */
+    public SelectChannelConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Sets the threads requests are executed on.
+     */
+    public void setThreadPool(ThreadPool threadPool) {
+        webServer.setThreadPool(threadPool);
+    }
+
     public void start() throws Exception {
         webServer.start();
     }
 
+    /**
+     * Returns the port the server listens to, useful when started on port 0.
+     */
+    public int getPort() {
+        return connector.getLocalPort();
+    }
+
+    public void stop() throws Exception {
+        webServer.stop();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+    }
+
+    /**
+     * Serves the gateway metrics as plain text at <code>/metrics</code> on
+     * a separate port, out of the WebDAV namespace and its authentication.
+     */
+    public void startMetrics(String bindAddress, int port) throws Exception {
+        metricsServer = new Server();
+        Connector connector = new SelectChannelConnector();
+        connector.setPort(port);
+        connector.setHost(bindAddress);
+        metricsServer.setConnectors(new Connector[]{connector});
+        Context context = new Context(metricsServer, "/", Context.NO_SESSIONS);
+        context.addServlet(new ServletHolder(new MetricsServlet()), "/metrics");
+        metricsServer.start();
+    }
+
     public static void main(String[] args) throws Exception {
         String usage = "WebdavServer";
         String header = "Run a webdav interface to a hadoop filesystem.";
@@ -60,6 +110,18 @@ public class WebdavServer {
         options.addOption("l", "listen", true, "address to listen to");
         options.addOption("p", "port", true, "port to bind to");
         options.addOption("n", "fs", true, "value for fs.default.name (eg. namenode:port)");
+        options.addOption("m", "metrics-port", true, "port to serve metrics on (disabled by default)");
+        options.addOption("x", "execution", true,
+                          "how requests are executed: 'pooled' on a bounded pool of threads (default),"
+                          + " 'elastic' each on a thread of its own with a small stack");
+        options.addOption("T", "max-threads", true,
+                          "most requests executed at once (default 250 pooled, "
+                          + ElasticThreadPool.DEFAULT_MAX_THREADS + " elastic)");
+        options.addOption("t", "min-threads", true, "threads kept when idle");
+        options.addOption("s", "stack-size", true, "stack size of elastic threads in kilobytes");
+        options.addOption("a", "acceptors", true, "number of threads accepting connections");
+        options.addOption("q", "accept-queue", true, "connections waiting to be accepted");
+        options.addOption("i", "idle-timeout", true, "milliseconds before idle connections are closed");
         options.addOption("h", "help", false, "print usage information");
         CommandLineParser parser = new GnuParser();
         CommandLine cmd = parser.parse(options, args);
@@ -80,8 +142,54 @@ public class WebdavServer {
         WebdavServlet.setConf(config);
 
         WebdavServer server = new WebdavServer(cmd.getOptionValue("l", "0.0.0.0"), port);
+        String execution = cmd.getOptionValue("execution", "pooled");
+        if (execution.equals("elastic")) {
+            ElasticThreadPool pool = new ElasticThreadPool();
+            if (cmd.hasOption("max-threads")) {
+                pool.setMaxThreads(Integer.parseInt(cmd.getOptionValue("max-threads")));
+            }
+            if (cmd.hasOption("min-threads")) {
+                pool.setMinThreads(Integer.parseInt(cmd.getOptionValue("min-threads")));
+            }
+            if (cmd.hasOption("stack-size")) {
+                pool.setStackSize(Long.parseLong(cmd.getOptionValue("stack-size")) * 1024);
+            }
+            server.setThreadPool(pool);
+            config.setInt(AdmissionController.THREADS_KEY,
+                          Integer.parseInt(cmd.getOptionValue("max-threads",
+                                                              String.valueOf(ElasticThreadPool.DEFAULT_MAX_THREADS))));
+        } else if (execution.equals("pooled")) {
+            if (cmd.hasOption("max-threads") || cmd.hasOption("min-threads")) {
+                QueuedThreadPool pool = new QueuedThreadPool();
+                if (cmd.hasOption("max-threads")) {
+                    pool.setMaxThreads(Integer.parseInt(cmd.getOptionValue("max-threads")));
+                }
+                if (cmd.hasOption("min-threads")) {
+                    pool.setMinThreads(Integer.parseInt(cmd.getOptionValue("min-threads")));
+                }
+                server.setThreadPool(pool);
+                config.setInt(AdmissionController.THREADS_KEY, pool.getMaxThreads());
+            }
+        } else {
+            System.err.println("Unknown execution mode: " + execution);
+            System.exit(-1);
+        }
+        if (cmd.hasOption("acceptors")) {
+            server.getConnector().setAcceptors(Integer.parseInt(cmd.getOptionValue("acceptors")));
+        }
+        if (cmd.hasOption("accept-queue")) {
+            server.getConnector().setAcceptQueueSize(Integer.parseInt(cmd.getOptionValue("accept-queue")));
+        }
+        if (cmd.hasOption("idle-timeout")) {
+            server.getConnector().setMaxIdleTime(Integer.parseInt(cmd.getOptionValue("idle-timeout")));
+        }
         LOG.info("Starting webdav server");
         server.start();
+        if (cmd.hasOption("metrics-port")) {
+            int metricsPort = Integer.parseInt(cmd.getOptionValue("metrics-port"));
+            LOG.info("Serving metrics on port " + metricsPort);
+            server.startMetrics(cmd.getOptionValue("l", "0.0.0.0"), metricsPort);
+        }
     }
 
 }
@@ -25,18 +25,24 @@ import java.util.*;
 import javax.servlet.http.*;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.security.UnixUserGroupInformation;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.permission.AccessControlException;
 import org.apache.jackrabbit.server.AbstractWebdavServlet;
 import org.apache.jackrabbit.webdav.*;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 import org.apache.jackrabbit.webdav.simple.LocatorFactoryImpl;
 import org.apache.jackrabbit.webdav.simple.ResourceConfig;
 import org.apache.jackrabbit.webdav.simple.ResourceFactoryImpl;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+import org.mortbay.jetty.security.UserRealm;
 import org.mortbay.jetty.webapp.WebAppContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 
 public class WebdavServlet extends AbstractWebdavServlet {
@@ -110,10 +116,55 @@ public class WebdavServlet extends AbstractWebdavServlet {
      */
     private ResourceConfig config;
 
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    /**
+     * Most ranges served in a single response, once the overlapping ones
+     * are merged. Requests asking for more get the whole entity.
+     */
+    public static final String MAX_RANGES_KEY = "hadoop.webdav.range.max";
+    public static final int DEFAULT_MAX_RANGES = 32;
+
+    private int maxRanges;
+
+    /**
+     * Status answering a ranged PUT that leaves the upload incomplete.
+     */
+    private static final int SC_RESUME_INCOMPLETE = 308;
+
     private static Configuration hadoopConfig = new Configuration();
 
+    /**
+     * The access log, or null if disabled
+     */
+    private AccessLog accessLog;
 
-    private static String currentUserName;
+    /**
+     * The metrics, or null if disabled
+     */
+    private WebdavMetrics metrics;
+
+    /**
+     * Size from which XML responses are compressed for clients accepting
+     * it, or -1 if disabled
+     */
+    private int gzipThreshold;
+
+    private int gzipLevel;
+
+    /**
+     * The admission control, or null if disabled
+     */
+    private AdmissionController admission;
+
+    /**
+     * Request attribute holding the admission ticket of the request.
+     */
+    private static final String ATTR_ADMISSION_TICKET = AdmissionController.Ticket.class.getName();
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
 
     /**
      * Init this servlet
@@ -171,6 +222,15 @@ public class WebdavServlet extends AbstractWebdavServlet {
             log.info("-- " + name + ": ");
         }
 
+        accessLog = AccessLog.create(getConf(getServletContext()));
+        metrics = WebdavMetrics.init(getConf(getServletContext()));
+        Configuration conf = getConf(getServletContext());
+        gzipThreshold = GzipResponse.isEnabled(conf)
+            ? conf.getInt(GzipResponse.THRESHOLD_KEY, GzipResponse.DEFAULT_THRESHOLD) : -1;
+        gzipLevel = conf.getInt(GzipResponse.LEVEL_KEY, GzipResponse.DEFAULT_LEVEL);
+        admission = AdmissionController.create(conf);
+        maxRanges = conf.getInt(MAX_RANGES_KEY, DEFAULT_MAX_RANGES);
+
         String configParam = getInitParameter(INIT_PARAM_RESOURCE_CONFIG);
         if (configParam != null) {
             try {
@@ -182,6 +242,14 @@ public class WebdavServlet extends AbstractWebdavServlet {
         }
     }
 
+    @Override
+    public void destroy() {
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        super.destroy();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -191,6 +259,363 @@ public class WebdavServlet extends AbstractWebdavServlet {
         return !resource.exists() || request.matchesIfHeader(resource);
     }
 
+    /**
+     * Streams the multistatus body to the client while the members are being
+     * listed, instead of building the whole document in memory first.
+     * <code>Depth: infinity</code> requests on collections go through the
+     * {@link TreeWalker}, which bounds them.
+     *
+     * @see AbstractWebdavServlet#doPropFind(WebdavRequest, WebdavResponse, DavResource)
+     */
+    @Override
+    protected void doPropFind(WebdavRequest request,
+                              WebdavResponse response,
+                              DavResource resource) throws IOException, DavException {
+        if (!resource.exists()) {
+            response.sendError(DavServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        int depth = request.getDepth(DEPTH_INFINITY);
+        DavPropertyNameSet requestProperties = request.getPropFindProperties();
+        int propfindType = request.getPropFindType();
+
+        TreeWalker walker = null;
+        if (depth == DEPTH_INFINITY && resource instanceof FSDavResource && resource.isCollection()) {
+            walker = ((FSDavResourceFactory) resource.getFactory()).getTreeWalker();
+            if (!walker.isInfinityEnabled()) {
+                throw new DavException(DavServletResponse.SC_FORBIDDEN, "Depth infinity is not supported.",
+                                       null, createErrorCondition("propfind-finite-depth"));
+            }
+        }
+
+        response.setStatus(DavServletResponse.SC_MULTI_STATUS);
+        response.setContentType("text/xml; charset=UTF-8");
+        MultiStatusWriter writer = new MultiStatusWriter(response.getOutputStream());
+        if (walker != null) {
+            walker.walk((FSDavResource) resource, requestProperties, propfindType, writer);
+        } else {
+            writer.addResourceProperties(resource, requestProperties, propfindType, depth);
+        }
+        writer.close();
+    }
+
+    /**
+     * Builds the element naming the precondition a request failed.
+     */
+    private static Element createErrorCondition(String name) throws IOException {
+        try {
+            Document document = DomUtil.BUILDER_FACTORY.newDocumentBuilder().newDocument();
+            return DomUtil.createElement(document, name, DavConstants.NAMESPACE);
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Serves <code>Range</code> requests on files with <code>206 Partial
+     * Content</code>, reading only the requested bytes. Requests without a
+     * usable range, or whose <code>If-Range</code> validator no longer
+     * matches, get the whole entity. Overlapping and adjacent ranges are
+     * merged, and requests left with more than {@link #MAX_RANGES_KEY}
+     * ranges get the whole entity as well.
+     *
+     * @see AbstractWebdavServlet#doGet(WebdavRequest, WebdavResponse, DavResource)
+     */
+    @Override
+    protected void doGet(WebdavRequest request,
+                         WebdavResponse response,
+                         DavResource resource) throws IOException {
+        String rangeHeader = request.getHeader(HEADER_RANGE);
+        if (rangeHeader == null
+            || !(resource instanceof FSDavResource)
+            || !resource.exists()
+            || resource.isCollection()
+            || !isIfRangeValid(request, resource)) {
+            doGetEntity(request, response, resource);
+            return;
+        }
+
+        FSDavResource fsResource = (FSDavResource) resource;
+        long length = fsResource.getContentLength();
+        List<ByteRange> ranges = ByteRange.parse(rangeHeader, length);
+        if (ranges != null) {
+            ranges = ByteRange.coalesce(ranges);
+        }
+        if (ranges == null || ranges.size() > maxRanges) {
+            doGetEntity(request, response, resource);
+            return;
+        }
+        if (ranges.isEmpty()) {
+            response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        long bytes = 0;
+        for (ByteRange range : ranges) {
+            bytes += range.getLength();
+        }
+        if (!reserveDownload(request, response, bytes)) {
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setDateHeader(HEADER_LAST_MODIFIED, resource.getModificationTime());
+        response.setHeader(FSDavResource.HEADER_ACCEPT_RANGES, "bytes");
+        OutputStream out = response.getOutputStream();
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setHeader(HEADER_CONTENT_RANGE, range.toContentRange(length));
+            response.setHeader(HEADER_CONTENT_LENGTH, String.valueOf(range.getLength()));
+            fsResource.spoolBody(out, range.getStart(), range.getLength());
+        } else {
+            String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(length);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            FSDataInputStream input = fsResource.open();
+            try {
+                for (ByteRange range : ranges) {
+                    String partHeader = "\r\n--" + boundary + "\r\n"
+                        + "Content-Type: application/octet-stream\r\n"
+                        + HEADER_CONTENT_RANGE + ": " + range.toContentRange(length) + "\r\n\r\n";
+                    out.write(partHeader.getBytes("ISO-8859-1"));
+                    fsResource.spool(input, out, range.getStart(), range.getLength());
+                }
+            } finally {
+                input.close();
+            }
+            out.write(("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1"));
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * Sends the whole entity of a resource.
+     */
+    private void doGetEntity(WebdavRequest request,
+                             WebdavResponse response,
+                             DavResource resource) throws IOException {
+        if (resource instanceof FSDavResource && resource.exists() && !resource.isCollection()
+            && !reserveDownload(request, response, ((FSDavResource) resource).getContentLength())) {
+            return;
+        }
+        super.doGet(request, response, resource);
+    }
+
+    /**
+     * Counts the given number of bytes against the cap on downloads in
+     * progress, rejecting the request if it is reached.
+     *
+     * @return false if the request was rejected
+     */
+    private boolean reserveDownload(WebdavRequest request, WebdavResponse response, long bytes)
+        throws IOException {
+        AdmissionController.Ticket ticket = (AdmissionController.Ticket) request.getAttribute(ATTR_ADMISSION_TICKET);
+        if (ticket == null || ticket.reserveDownload(bytes)) {
+            return true;
+        }
+        sendRejected(response, ticket);
+        return false;
+    }
+
+    /**
+     * Answers a request turned down by the admission control.
+     */
+    private static void sendRejected(HttpServletResponse response, AdmissionController.Ticket ticket)
+        throws IOException {
+        response.setHeader(HEADER_RETRY_AFTER, String.valueOf(ticket.getRetryAfter()));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Checks the <code>If-Range</code> header of the request, if any. Only
+     * HTTP dates are supported as validators since resources have no entity
+     * tags; an entity tag never matches.
+     */
+    private boolean isIfRangeValid(WebdavRequest request, DavResource resource) {
+        if (request.getHeader(HEADER_IF_RANGE) == null) {
+            return true;
+        }
+        long ifRange;
+        try {
+            ifRange = request.getDateHeader(HEADER_IF_RANGE);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+        return resource.getModificationTime() / 1000 == ifRange / 1000;
+    }
+
+    /**
+     * Handles resumable uploads. A PUT carrying a <code>Content-Range</code>
+     * writes that range of the file; <code>bytes *&#47;total</code> with no
+     * content only asks how much has been received. Until all the bytes are
+     * in, the answer is <code>308 Resume Incomplete</code> with a
+     * <code>Range</code> header giving the bytes committed so far.
+     *
+     * @see AbstractWebdavServlet#doPut(WebdavRequest, WebdavResponse, DavResource)
+     */
+    @Override
+    protected void doPut(WebdavRequest request,
+                         WebdavResponse response,
+                         DavResource resource) throws IOException, DavException {
+        String header = request.getHeader(HEADER_CONTENT_RANGE);
+        if (header == null || !(resource instanceof FSDavResource)) {
+            super.doPut(request, response, resource);
+            return;
+        }
+        ContentRange range = ContentRange.parse(header);
+        if (range == null) {
+            throw new DavException(DavServletResponse.SC_BAD_REQUEST,
+                                   "Invalid Content-Range: " + header);
+        }
+        DavResource parentResource = resource.getCollection();
+        if (parentResource == null || !parentResource.exists() || resource.isCollection()) {
+            response.sendError(DavServletResponse.SC_CONFLICT);
+            return;
+        }
+
+        FSDavResource fsResource = (FSDavResource) resource;
+        int status = resource.exists() ? DavServletResponse.SC_NO_CONTENT : DavServletResponse.SC_CREATED;
+        long committed;
+        if (range.isQuery()) {
+            committed = fsResource.getCommittedLength();
+        } else {
+            try {
+                committed = fsResource.writeRange(getInputContext(request, request.getInputStream()), range);
+            } catch (DavException ex) {
+                if (ex.getErrorCode() != DavServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                    throw ex;
+                }
+                setCommittedRange(response, fsResource.getCommittedLength());
+                response.sendError(ex.getErrorCode(), ex.getStatusPhrase());
+                return;
+            }
+        }
+        if (range.getTotal() >= 0 && committed >= range.getTotal()) {
+            response.setStatus(status);
+        } else {
+            setCommittedRange(response, committed);
+            response.setStatus(SC_RESUME_INCOMPLETE);
+        }
+    }
+
+    private static void setCommittedRange(WebdavResponse response, long committed) {
+        if (committed > 0) {
+            response.setHeader(HEADER_RANGE, "bytes=0-" + (committed - 1));
+        }
+    }
+
+    /**
+     * Answers a copy that failed for some members only with a multistatus
+     * listing them.
+     *
+     * @see AbstractWebdavServlet#doCopy(WebdavRequest, WebdavResponse, DavResource)
+     */
+    @Override
+    protected void doCopy(WebdavRequest request,
+                          WebdavResponse response,
+                          DavResource resource) throws IOException, DavException {
+        try {
+            super.doCopy(request, response, resource);
+        } catch (MultiStatusException ex) {
+            response.sendMultiStatus(ex.getMultiStatus());
+        } catch (JobAcceptedException ex) {
+            sendAccepted(request, response, ex.getJob());
+        }
+    }
+
+    /**
+     * Answers a move handed over to the job engine.
+     *
+     * @see AbstractWebdavServlet#doMove(WebdavRequest, WebdavResponse, DavResource)
+     */
+    @Override
+    protected void doMove(WebdavRequest request,
+                          WebdavResponse response,
+                          DavResource resource) throws IOException, DavException {
+        try {
+            super.doMove(request, response, resource);
+        } catch (JobAcceptedException ex) {
+            sendAccepted(request, response, ex.getJob());
+        }
+    }
+
+    /**
+     * Answers a deletion handed over to the job engine.
+     *
+     * @see AbstractWebdavServlet#doDelete(WebdavRequest, WebdavResponse, DavResource)
+     */
+    @Override
+    protected void doDelete(WebdavRequest request,
+                            WebdavResponse response,
+                            DavResource resource) throws IOException, DavException {
+        try {
+            super.doDelete(request, response, resource);
+        } catch (JobAcceptedException ex) {
+            sendAccepted(request, response, ex.getJob());
+        }
+    }
+
+    /**
+     * Sends <code>202 Accepted</code> with the location and the current
+     * status of a background job.
+     */
+    private void sendAccepted(WebdavRequest request, WebdavResponse response, JobEngine.Job job)
+        throws IOException {
+        JobEngine jobs = ((FSDavResourceFactory) getResourceFactory()).getJobEngine();
+        StringBuffer location = request.getRequestURL();
+        location.setLength(location.length() - request.getRequestURI().length());
+        location.append(request.getContextPath()).append(resourcePathPrefix).append(jobs.getStatusPath(job));
+        response.setHeader("Location", location.toString());
+        response.sendXmlResponse(job, HttpServletResponse.SC_ACCEPTED);
+    }
+
+    /**
+     * Serves the status resources of background jobs: <code>GET</code>
+     * returns the status of a job and <code>DELETE</code> cancels it. Only
+     * the user who submitted a job can see it.
+     *
+     * @return false if the request is not for a status resource
+     */
+    private boolean serveJobStatus(HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        DavResourceFactory factory = getResourceFactory();
+        if (!(factory instanceof FSDavResourceFactory)) {
+            return false;
+        }
+        JobEngine jobs = ((FSDavResourceFactory) factory).getJobEngine();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (jobs == null || !path.startsWith(resourcePathPrefix)) {
+            return false;
+        }
+        path = path.substring(resourcePathPrefix.length());
+        if (!jobs.isStatusPath(path)) {
+            return false;
+        }
+
+        WebdavResponse webdavResponse = new WebdavResponseImpl(response);
+        String id = jobs.getJobId(path);
+        JobEngine.Job job = id == null ? null : jobs.get(id);
+        if (job == null) {
+            webdavResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return true;
+        }
+        String user = request.getRemoteUser();
+        if (user == null || !user.equals(job.getUser())) {
+            webdavResponse.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return true;
+        }
+        String method = request.getMethod();
+        if (method.equals(DavMethods.METHOD_DELETE)) {
+            job.cancel();
+        } else if (!method.equals(DavMethods.METHOD_GET) && !method.equals(DavMethods.METHOD_HEAD)) {
+            response.setHeader("Allow", "GET, HEAD, DELETE");
+            webdavResponse.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return true;
+        }
+        webdavResponse.sendXmlResponse(job, HttpServletResponse.SC_OK);
+        return true;
+    }
+
     /**
      * Returns the <code>DavLocatorFactory</code>. If no locator factory has
      * been set or created a new instance of {@link org.apache.jackrabbit.webdav.simple.LocatorFactoryImpl} is
@@ -248,7 +673,7 @@ public class WebdavServlet extends AbstractWebdavServlet {
 
     /**
      * Returns the <code>DavSessionProvider</code>. If no session provider has
-     * been set or created a new instance of {@link FakeDavSessionProvider}
+     * been set or created a new instance of {@link FSDavSessionProvider}
      * is returned.
      *
      * @return the session provider
@@ -256,7 +681,7 @@ public class WebdavServlet extends AbstractWebdavServlet {
     @Override
     public synchronized DavSessionProvider getDavSessionProvider() {
         if (davSessionProvider == null) {
-            davSessionProvider = new FakeDavSessionProvider();
+            davSessionProvider = new FSDavSessionProvider(getUserRealm(getServletContext()));
         }
         return davSessionProvider;
     }
@@ -311,9 +736,6 @@ public class WebdavServlet extends AbstractWebdavServlet {
      *        must override those of Nutch.
      */
 
-    //TODO for DEBUG only
-    private static List<String> currentUserRoles;
-
     private static Configuration getConf(ServletContext application) {
         Configuration conf = (Configuration) application.getAttribute("dfs.servlet.conf.key");
 
@@ -326,20 +748,24 @@ public class WebdavServlet extends AbstractWebdavServlet {
             }
             application.setAttribute("dfs.servlet.conf.key", conf);
         }
-
-        if (currentUserName != null) {
-            WebAppContext webapp = (WebAppContext) application.getAttribute(WebdavServer.WEB_APP_CONTEXT);
-            WebdavHashUserRealm userRealm = (WebdavHashUserRealm) webapp.getSecurityHandler().getUserRealm();
-            List<String> userRoles = userRealm.getUserRoles(currentUserName);
-            currentUserRoles = userRoles;
-
-            UnixUserGroupInformation ugi = new UnixUserGroupInformation(currentUserName, userRoles.toArray(new String[0]));
-            UnixUserGroupInformation.saveToConf(conf, UnixUserGroupInformation.UGI_PROPERTY_NAME, ugi);
-        }
         return conf;
     }
 
-
+    /**
+     * Returns the realm the users of the web application are authenticated
+     * against, or null if it does not provide roles.
+     */
+    private static WebdavHashUserRealm getUserRealm(ServletContext application) {
+        WebAppContext webapp = (WebAppContext) application.getAttribute(WebdavServer.WEB_APP_CONTEXT);
+        if (webapp == null || webapp.getSecurityHandler() == null) {
+            return null;
+        }
+        UserRealm userRealm = webapp.getSecurityHandler().getUserRealm();
+        if (userRealm instanceof WebdavHashUserRealm) {
+            return (WebdavHashUserRealm) userRealm;
+        }
+        return null;
+    }
 
     /**
      * This is a cheesy way to set the value of the hadoop config
@@ -352,53 +778,41 @@ public class WebdavServlet extends AbstractWebdavServlet {
     protected void service(HttpServletRequest request,
                            HttpServletResponse response) throws ServletException,
                                                                 IOException {
-        log.info("/--------------------------------------------------");
-        log.debug(request.getMethod() + " " + request.getRequestURL().toString());
-        log.info(request.getMethod() + " " + request.getRequestURL().toString());
-        log.info(request.getMethod() + " " + request.getRequestURI().toString());
-
-        log.info("  RemoteHost: " + request.getRemoteHost());
-        log.info("| ATTRIBUTES: ");
-        Enumeration e1 = request.getAttributeNames();
-        while (e1.hasMoreElements()) {
-            String name = (String) e1.nextElement();
-            log.info("|| " + name + ": ");
+        long startTime = System.nanoTime();
+        if (log.isDebugEnabled()) {
+            logRequest(request);
         }
-
-        log.info("| PARAMETERS: ");
-        Enumeration e2 = request.getParameterNames();
-        while (e2.hasMoreElements()) {
-            String name = (String) e2.nextElement();
-            log.info("|| " + name + ": ");
+        ResponseRecorder recorder = null;
+        if (accessLog != null || metrics != null) {
+            recorder = new ResponseRecorder(response);
+            response = recorder;
         }
-        
-        log.info("HEADERS: ");
-        Enumeration e6 = request.getHeaderNames();
-        while (e6.hasMoreElements()) {
-            String name = (String) e6.nextElement();
-            log.info("-- " + name + ": " + request.getHeader(name));
+        if (metrics != null) {
+            metrics.requestStarted();
         }
-        log.info("RemoteUser: " + request.getRemoteUser());
-        log.info("AuthType: " + request.getAuthType());
-
-        currentUserName = request.getRemoteUser();
-
-        String roles = "";
-        if (currentUserRoles != null) {
-            for (String roleName : currentUserRoles) {
-                roles += roleName + ", ";
-            }
-            if (roles.length() > 2) {
-                roles = roles.substring(0, roles.length()-2);
-            }
+        GzipResponse gzipResponse = null;
+        if (gzipThreshold >= 0 && GzipResponse.isCompressible(request)) {
+            gzipResponse = new GzipResponse(response, gzipThreshold, gzipLevel);
+            response = gzipResponse;
         }
-        log.debug("Roles: " + roles);
 
+        AdmissionController.Ticket ticket = null;
         try {
-            super.service(request, response);
+            if (admission != null) {
+                ticket = admit(request);
+                request.setAttribute(ATTR_ADMISSION_TICKET, ticket);
+            }
+            if (ticket != null && !ticket.isAdmitted()) {
+                sendRejected(response, ticket);
+            } else if (!serveJobStatus(request, response)) {
+                super.service(request, response);
+            }
         } catch (Exception e) {
-            if (e.getCause() instanceof AccessControlException) {
-                    log.info("EXCEPTION: Can't access to resource. You don't have permissions.");
+            if (response.isCommitted()) {
+                // a streamed response has already been started, nothing can be sent anymore
+                log.warn("Request failed after the response was committed: " + e);
+            } else if (e.getCause() instanceof AccessControlException) {
+                log.info("EXCEPTION: Can't access to resource. You don't have permissions.");
                 MultiStatusResponse msr = new MultiStatusResponse(request.getRequestURL().toString(), 401,
                                                                   "Can't access to resource. You don't have permissions.");
 
@@ -408,8 +822,82 @@ public class WebdavServlet extends AbstractWebdavServlet {
                 WebdavResponse webdavResponse = new WebdavResponseImpl(response);
                 webdavResponse.sendMultiStatus(ms);
             } else new WebdavResponseImpl(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR); 
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
+            if (gzipResponse != null) {
+                try {
+                    gzipResponse.finish();
+                } catch (IOException ex) {
+                    log.warn("Unable to complete the response: " + ex);
+                }
+            }
+            long micros = (System.nanoTime() - startTime) / 1000;
+            if (metrics != null) {
+                metrics.requestFinished(request.getMethod(), micros, recorder.getStatus(), recorder.getBytes());
+            }
+            if (accessLog != null) {
+                accessLog.log(request.getMethod(),
+                              request.getRequestURI(),
+                              recorder.getStatus(),
+                              recorder.getBytes(),
+                              micros / 1000,
+                              request.getRemoteUser());
+            }
         }
+    }
 
-        log.info("\\--------------------------------------------------");
+    /**
+     * Admits a request, on behalf of its user or, if anonymous, of its
+     * address. Uploads are counted by their <code>Content-Length</code>.
+     */
+    private AdmissionController.Ticket admit(HttpServletRequest request) {
+        String user = request.getRemoteUser();
+        if (user == null) {
+            user = request.getRemoteAddr();
+        }
+        long uploadLength = -1;
+        if (request.getMethod().equals(DavMethods.METHOD_PUT)) {
+            String contentLength = request.getHeader(HEADER_CONTENT_LENGTH);
+            if (contentLength != null) {
+                try {
+                    uploadLength = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException ex) {
+                    // left to the handling of the request
+                }
+            }
+        }
+        return admission.admit(user, request.getMethod(), uploadLength);
+    }
+
+    /**
+     * Dumps everything about a request, for debugging clients.
+     */
+    private void logRequest(HttpServletRequest request) {
+        log.debug(request.getMethod() + " " + request.getRequestURL().toString());
+        log.debug("  RemoteHost: " + request.getRemoteHost());
+        log.debug("| ATTRIBUTES: ");
+        Enumeration e1 = request.getAttributeNames();
+        while (e1.hasMoreElements()) {
+            String name = (String) e1.nextElement();
+            log.debug("|| " + name + ": ");
+        }
+
+        log.debug("| PARAMETERS: ");
+        Enumeration e2 = request.getParameterNames();
+        while (e2.hasMoreElements()) {
+            String name = (String) e2.nextElement();
+            log.debug("|| " + name + ": ");
+        }
+
+        log.debug("HEADERS: ");
+        Enumeration e6 = request.getHeaderNames();
+        while (e6.hasMoreElements()) {
+            String name = (String) e6.nextElement();
+            log.debug("-- " + name + ": " + request.getHeader(name));
+        }
+        log.debug("RemoteUser: " + request.getRemoteUser());
+        log.debug("AuthType: " + request.getAuthType());
     }
 }
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.webdav;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.mortbay.io.nio.DirectNIOBuffer;
+import org.mortbay.jetty.HttpConnection;
+
+/**
+ * Sends files of the local filesystem without copying them through the
+ * heap. The file is mapped in memory and the mapping handed to Jetty,
+ * which writes it to the socket channel straight from the page cache.
+ * <p/>
+ * Only a response body made of a single range can be sent this way, and
+ * only when the servlet writes to the stream of the Jetty connection.
+ * Checksums of the local filesystem are not verified, as they would be
+ * when copying.
+ */
+public class ZeroCopySpooler {
+
+    /**
+     * Whether files of the local filesystem are sent without copying, on by
+     * default.
+     */
+    public static final String ENABLED_KEY = "hadoop.webdav.zerocopy.enabled";
+
+    /**
+     * Size in bytes under which copying is cheaper than mapping the file.
+     */
+    public static final String MIN_SIZE_KEY = "hadoop.webdav.zerocopy.min.size";
+    public static final long DEFAULT_MIN_SIZE = 64 * 1024;
+
+    private final long minSize;
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED_KEY, true);
+    }
+
+    public ZeroCopySpooler(Configuration conf) {
+        this.minSize = conf.getLong(MIN_SIZE_KEY, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * Returns the local file holding the data of a path, or null if the
+     * filesystem, once its filters are removed, is not the local one.
+     */
+    static File getLocalFile(FileSystem fs, Path path) {
+        // the checksummed local filesystem is a filter too
+        while (fs instanceof FilterFileSystem) {
+            fs = ((FilterFileSystem) fs).getRawFileSystem();
+        }
+        if (fs instanceof RawLocalFileSystem) {
+            return ((RawLocalFileSystem) fs).pathToFile(path);
+        }
+        return null;
+    }
+
+    /**
+     * Sends <code>length</code> bytes of a file, starting at
+     * <code>offset</code>, as the whole body of the response, and completes
+     * the response.
+     *
+     * @return false if the file cannot be sent this way, in which case
+     *         nothing has been written
+     */
+    public boolean spool(FileSystem fs, Path path, long offset, long length, OutputStream out)
+        throws IOException {
+        if (length < minSize || length > Integer.MAX_VALUE) {
+            return false;
+        }
+        ResponseRecorder.RecordingOutputStream recorder = null;
+        if (out instanceof ResponseRecorder.RecordingOutputStream) {
+            recorder = (ResponseRecorder.RecordingOutputStream) out;
+            out = recorder.getDelegate();
+        }
+        if (!(out instanceof HttpConnection.Output)) {
+            return false;
+        }
+        File file = getLocalFile(fs, path);
+        if (file == null) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < offset + length) {
+                return false;
+            }
+            // the mapping outlives the file
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+            ((HttpConnection.Output) out).sendContent(new DirectNIOBuffer(buffer, true));
+        } finally {
+            raf.close();
+        }
+        if (recorder != null) {
+            recorder.record(length);
+        }
+        return true;
+    }
+}
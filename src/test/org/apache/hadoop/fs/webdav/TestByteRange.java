@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestByteRange extends TestCase {
+
+    private static void assertRanges(String expected, List<ByteRange> ranges) {
+        assertEquals(expected, ranges == null ? null : ranges.toString());
+    }
+
+    public void testParse() {
+        assertRanges("[0-499]", ByteRange.parse("bytes=0-499", 1000));
+        assertRanges("[500-999]", ByteRange.parse("bytes=500-", 1000));
+        assertRanges("[900-999]", ByteRange.parse("bytes=-100", 1000));
+        assertRanges("[0-999]", ByteRange.parse("bytes=-2000", 1000));
+        assertRanges("[0-999]", ByteRange.parse("bytes=0-5000", 1000));
+        assertRanges("[0-0, 999-999]", ByteRange.parse("Bytes= 0-0 , -1", 1000));
+    }
+
+    public void testUnsatisfiable() {
+        assertRanges("[]", ByteRange.parse("bytes=1000-", 1000));
+        assertRanges("[]", ByteRange.parse("bytes=-0", 1000));
+        assertRanges("[]", ByteRange.parse("bytes=-10", 0));
+        assertRanges("[0-9]", ByteRange.parse("bytes=2000-3000,0-9", 1000));
+    }
+
+    public void testMalformed() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=5", 1000));
+        assertNull(ByteRange.parse("bytes=9-5", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=-", 1000));
+        assertNull(ByteRange.parse("bytes=0-1,x", 1000));
+    }
+
+    public void testCoalesce() {
+        List<ByteRange> ranges = Arrays.asList(new ByteRange(500, 599), new ByteRange(0, 99),
+                                               new ByteRange(100, 199), new ByteRange(550, 700),
+                                               new ByteRange(900, 999));
+        assertRanges("[0-199, 500-700, 900-999]", ByteRange.coalesce(ranges));
+        assertRanges("[0-9]", ByteRange.coalesce(Arrays.asList(new ByteRange(0, 9))));
+        assertRanges("[0-99]", ByteRange.coalesce(Arrays.asList(new ByteRange(0, 99), new ByteRange(10, 20))));
+    }
+
+    public void testContentRange() {
+        ByteRange range = new ByteRange(10, 19);
+        assertEquals(10, range.getLength());
+        assertEquals("bytes 10-19/100", range.toContentRange(100));
+    }
+}
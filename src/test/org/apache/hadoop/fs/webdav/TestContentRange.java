@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import junit.framework.TestCase;
+
+public class TestContentRange extends TestCase {
+
+    public void testRange() {
+        ContentRange range = ContentRange.parse("bytes 0-1048575/4194304");
+        assertEquals(0, range.getFirst());
+        assertEquals(1048575, range.getLast());
+        assertEquals(1048576, range.getLength());
+        assertEquals(4194304, range.getTotal());
+        assertFalse(range.isQuery());
+    }
+
+    public void testUnknownTotal() {
+        ContentRange range = ContentRange.parse("bytes 100-199/*");
+        assertEquals(100, range.getLength());
+        assertEquals(-1, range.getTotal());
+    }
+
+    public void testQuery() {
+        ContentRange range = ContentRange.parse("bytes */4194304");
+        assertTrue(range.isQuery());
+        assertEquals(0, range.getLength());
+        assertEquals(4194304, range.getTotal());
+        assertNull(ContentRange.parse("bytes */*"));
+    }
+
+    public void testMalformed() {
+        assertNull(ContentRange.parse(null));
+        assertNull(ContentRange.parse("items 0-1/2"));
+        assertNull(ContentRange.parse("bytes 0-1"));
+        assertNull(ContentRange.parse("bytes -1/2"));
+        assertNull(ContentRange.parse("bytes 5-4/10"));
+        assertNull(ContentRange.parse("bytes 0-10/10"));
+        assertNull(ContentRange.parse("bytes a-b/10"));
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockInfo;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+
+public class TestStripedLockManager extends TestCase {
+
+    private static final long TIMEOUT = 60 * 1000L;
+
+    private StripedLockManager locks;
+    private FSDavSession alice;
+    private FSDavSession bob;
+
+    protected void setUp() {
+        locks = new StripedLockManager(new Configuration());
+        alice = new FSDavSession(new SecurityContext("alice", Collections.<String>emptyList()));
+        bob = new FSDavSession(new SecurityContext("bob", Collections.<String>emptyList()));
+    }
+
+    private static LockInfo info(boolean deep, long timeout) {
+        return new LockInfo(Scope.EXCLUSIVE, Type.WRITE, "owner", timeout, deep);
+    }
+
+    private ActiveLock lock(String path, boolean deep, FSDavSession session) throws DavException {
+        return locks.createLock(info(deep, TIMEOUT), new Path(path), session);
+    }
+
+    private static void assertStatus(int status, DavException ex) {
+        assertEquals(status, ex.getErrorCode());
+    }
+
+    public void testDeepLockRefusedWhileLocksBelow() throws DavException {
+        ActiveLock child = lock("/a/b/c", false, alice);
+        try {
+            lock("/a", true, alice);
+            fail("locked over a lock below");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_LOCKED, ex);
+        }
+        // a shallow lock does not cover the paths below
+        locks.releaseLock(lock("/a", false, alice).getToken(), new Path("/a"), alice);
+
+        locks.releaseLock(child.getToken(), new Path("/a/b/c"), alice);
+        assertEquals(0, locks.size());
+        ActiveLock parent = lock("/a", true, alice);
+        locks.releaseLock(parent.getToken(), new Path("/a"), alice);
+        assertEquals(0, locks.size());
+    }
+
+    public void testCountsOfSiblingsAndRoot() throws DavException {
+        ActiveLock one = lock("/a/one", false, alice);
+        ActiveLock two = lock("/a/two", false, alice);
+        ActiveLock other = lock("/b/three", false, alice);
+        locks.releaseLock(one.getToken(), new Path("/a/one"), alice);
+        try {
+            lock("/a", true, alice);
+            fail("locked over a lock below");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_LOCKED, ex);
+        }
+        locks.releaseLock(two.getToken(), new Path("/a/two"), alice);
+        locks.releaseLock(lock("/a", true, alice).getToken(), new Path("/a"), alice);
+        try {
+            lock("/", true, alice);
+            fail("locked the root over a lock below");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_LOCKED, ex);
+        }
+        locks.releaseLock(other.getToken(), new Path("/b/three"), alice);
+        locks.releaseLock(lock("/", true, alice).getToken(), new Path("/"), alice);
+        assertEquals(0, locks.size());
+    }
+
+    public void testExpiredLockReplaced() throws Exception {
+        locks.createLock(info(false, 1), new Path("/a/b"), alice);
+        Thread.sleep(20);
+        // expired, but not necessarily reaped yet
+        ActiveLock again = lock("/a/b", false, bob);
+        assertEquals(1, locks.size());
+        locks.releaseLock(again.getToken(), new Path("/a/b"), bob);
+        assertEquals(0, locks.size());
+        // the counts of the ancestors went back to zero
+        locks.releaseLock(lock("/a", true, alice).getToken(), new Path("/a"), alice);
+    }
+
+    public void testReleaseByOtherUserForbidden() throws DavException {
+        ActiveLock lock = lock("/a", true, alice);
+        try {
+            locks.releaseLock(lock.getToken(), new Path("/a"), bob);
+            fail("released the lock of another user");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_FORBIDDEN, ex);
+        }
+        try {
+            locks.refreshLock(info(true, TIMEOUT), lock.getToken(), new Path("/a"), bob);
+            fail("refreshed the lock of another user");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_FORBIDDEN, ex);
+        }
+        assertEquals(1, locks.size());
+    }
+
+    public void testRefreshReleasedLockFails() throws DavException {
+        ActiveLock lock = lock("/a", false, alice);
+        locks.refreshLock(info(false, TIMEOUT), lock.getToken(), new Path("/a"), alice);
+        locks.releaseLock(lock.getToken(), new Path("/a"), alice);
+        try {
+            locks.refreshLock(info(false, TIMEOUT), lock.getToken(), new Path("/a"), alice);
+            fail("refreshed a released lock");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_PRECONDITION_FAILED, ex);
+        }
+    }
+
+    public void testCheckUnlocked() throws DavException {
+        ActiveLock lock = lock("/a/b", false, alice);
+        try {
+            locks.checkUnlocked(new Path("/a/b"), bob, false);
+            fail("modified a locked path");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_LOCKED, ex);
+        }
+        locks.checkUnlocked(new Path("/a"), bob, false);
+        try {
+            locks.checkUnlocked(new Path("/a"), bob, true);
+            fail("modified a tree holding a lock");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_LOCKED, ex);
+        }
+        alice.addLockToken(lock.getToken());
+        locks.checkUnlocked(new Path("/a"), alice, true);
+        // a token only counts when submitted by the owner of the lock
+        bob.addLockToken(lock.getToken());
+        try {
+            locks.checkUnlocked(new Path("/a/b"), bob, false);
+            fail("used the token of another user");
+        } catch (DavException ex) {
+            assertStatus(DavServletResponse.SC_LOCKED, ex);
+        }
+    }
+
+    public void testRemoveLocks() throws DavException {
+        lock("/a", false, alice);
+        lock("/a/b", false, alice);
+        lock("/a/b/c", false, alice);
+        lock("/ab", false, alice);
+        locks.removeLocks(new Path("/a"));
+        assertEquals(1, locks.size());
+        locks.releaseLock(lock("/a", true, alice).getToken(), new Path("/a"), alice);
+    }
+}
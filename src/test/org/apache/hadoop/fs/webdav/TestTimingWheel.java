@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.webdav;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestTimingWheel extends TestCase {
+
+    private static final long TICK = 1000;
+    private static final long START = 1000000 * TICK;
+
+    private static class Expiry extends TimingWheel.Timeout {
+        long expiredAt = -1;
+    }
+
+    /**
+     * Schedules a timeout the given number of ticks ahead, advances one tick
+     * at a time and returns the tick it expired at, relative to the start.
+     */
+    private static long expire(TimingWheel wheel, long start, long ticks) {
+        Expiry expiry = new Expiry();
+        wheel.schedule(expiry, start + ticks * TICK);
+        for (long tick = 1; tick <= ticks + 1; tick++) {
+            List<TimingWheel.Timeout> expired = wheel.advance(start + tick * TICK);
+            if (!expired.isEmpty()) {
+                assertEquals(1, expired.size());
+                assertSame(expiry, expired.get(0));
+                return tick;
+            }
+        }
+        return -1;
+    }
+
+    public void testExpiresOnItsTickAcrossCascades() {
+        long slots = TimingWheel.SLOTS;
+        long[] ticks = {
+            1, 2, slots - 1, slots, slots + 1, 2 * slots - 1, 2 * slots,
+            slots * slots - 1, slots * slots, slots * slots + 1,
+            slots * slots * slots - 1, slots * slots * slots, slots * slots * slots + 1
+        };
+        // starting on and just off the boundaries of the coarser wheels
+        long[] offsets = {0, 1, slots - 1, slots * slots - 1};
+        for (long offset : offsets) {
+            for (long ticksAhead : ticks) {
+                long start = START + offset * TICK;
+                TimingWheel wheel = new TimingWheel(TICK, start);
+                assertEquals("offset " + offset + ", " + ticksAhead + " ticks ahead",
+                             ticksAhead, expire(wheel, start, ticksAhead));
+                assertEquals(0, wheel.size());
+            }
+        }
+    }
+
+    public void testDeadlineRoundedUp() {
+        TimingWheel wheel = new TimingWheel(TICK, START);
+        Expiry expiry = new Expiry();
+        wheel.schedule(expiry, START + TICK + 1);
+        // never early: not before the end of the tick holding the deadline
+        assertTrue(wheel.advance(START + 2 * TICK - 1).isEmpty());
+        assertEquals(1, wheel.advance(START + 2 * TICK).size());
+    }
+
+    public void testPastDeadlineExpiresOnNextTick() {
+        TimingWheel wheel = new TimingWheel(TICK, START);
+        wheel.schedule(new Expiry(), START - 10 * TICK);
+        assertEquals(1, wheel.advance(START + TICK).size());
+    }
+
+    public void testBeyondLastWheel() {
+        TimingWheel wheel = new TimingWheel(TICK, START);
+        long slots = TimingWheel.SLOTS;
+        long ticks = slots * slots * slots * slots + 3 * slots;
+        Expiry expiry = new Expiry();
+        wheel.schedule(expiry, START + ticks * TICK);
+        assertTrue(wheel.advance(START + (ticks - 1) * TICK).isEmpty());
+        assertEquals(1, wheel.size());
+        List<TimingWheel.Timeout> expired = wheel.advance(START + ticks * TICK);
+        assertEquals(1, expired.size());
+        assertSame(expiry, expired.get(0));
+    }
+
+    public void testCancel() {
+        TimingWheel wheel = new TimingWheel(TICK, START);
+        Expiry expiry = new Expiry();
+        wheel.schedule(expiry, START + 100 * TICK);
+        assertTrue(wheel.cancel(expiry));
+        assertFalse(wheel.cancel(expiry));
+        assertEquals(0, wheel.size());
+        assertTrue(wheel.advance(START + 200 * TICK).isEmpty());
+    }
+
+    public void testReschedule() {
+        TimingWheel wheel = new TimingWheel(TICK, START);
+        Expiry expiry = new Expiry();
+        wheel.schedule(expiry, START + 5000 * TICK);
+        wheel.schedule(expiry, START + 10 * TICK);
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.advance(START + 9 * TICK).isEmpty());
+        assertEquals(1, wheel.advance(START + 10 * TICK).size());
+        assertTrue(wheel.advance(START + 6000 * TICK).isEmpty());
+        assertEquals(0, wheel.size());
+    }
+}